@@ -0,0 +1,66 @@
+// Generates a large multi-release project:
+// * perfClasses classes in the main sources, spread over packages of 100 classes each,
+// * release 9 with a module descriptor and an override of every 10th class,
+// * releases 10 and 11 without module descriptors, overriding every 20th class,
+// * perfResources resources in a nested directory structure.
+
+def variable = { String name, String defaultValue ->
+    binding.hasVariable(name) && binding.getVariable(name) ? binding.getVariable(name) : defaultValue
+}
+
+def classCount = variable("perfClasses", "2000") as int
+def resourceCount = variable("perfResources", "2000") as int
+def classesPerPackage = 100
+
+def writeClass = { File root, int i, String release ->
+    def pkg = "perf.p${i.intdiv(classesPerPackage)}"
+    def dir = new File(root, pkg.replace('.', '/'))
+    dir.mkdirs()
+
+    def previous = i % classesPerPackage == 0 ? "Object" : "C${i - 1}"
+    new File(dir, "C${i}.java").text = """package ${pkg};
+
+public class C${i} {
+    public static final String RELEASE = "${release}";
+
+    private final ${previous} previous;
+
+    public C${i}(${previous} previous) {
+        this.previous = previous;
+    }
+
+    public ${previous} getPrevious() {
+        return previous;
+    }
+
+    public String describe(int depth) {
+        return depth == 0 ? "C${i}@" + RELEASE : "C${i}@" + RELEASE + " -> " + String.valueOf(previous);
+    }
+}
+"""
+}
+
+def main = new File(basedir, "src/main/java")
+(0..<classCount).each { writeClass(main, it, "base") }
+
+def packageCount = (classCount + classesPerPackage - 1).intdiv(classesPerPackage)
+
+def release9 = new File(basedir, "src/main/java-mr/9")
+(0..<classCount).step(10).each { writeClass(release9, it, "9") }
+release9.mkdirs()
+new File(release9, "module-info.java").text = "module perf.large {\n" +
+        (0..<packageCount).collect { "    exports perf.p${it};" }.join("\n") + "\n}\n"
+
+["10", "11"].each { release ->
+    def dir = new File(basedir, "src/main/java-mr/${release}")
+    (0..<classCount).step(20).each { writeClass(dir, it, release) }
+}
+
+def resources = new File(basedir, "src/main/resources")
+(0..<resourceCount).each { i ->
+    def dir = new File(resources, "r${i.intdiv(1000)}/r${i.intdiv(100)}")
+    dir.mkdirs()
+    new File(dir, "resource-${i}.properties").text = "index=${i}\nvalue=${'x' * 512}\n"
+}
+
+return true
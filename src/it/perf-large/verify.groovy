@@ -0,0 +1,92 @@
+// Records the time and the peak heap usage of the compile and package invocations and compares them with a baseline.
+//
+// The results are written to target/perf-results.properties of this project. If the perfBaseline variable points to
+// the results of a previous run, the build fails if any of the results is worse than the baseline by more than
+// perfThreshold percent.
+
+def jar = new File(basedir, "target/perf-large-0.jar")
+assert jar.isFile() : "The jar was not built."
+
+def jarFile = new java.util.jar.JarFile(jar)
+def entries
+try {
+    entries = jarFile.entries().toList()*.name
+} finally {
+    jarFile.close()
+}
+assert entries.contains("module-info.class")
+assert entries.contains("META-INF/versions/9/perf/p0/C0.class")
+assert entries.contains("META-INF/versions/10/perf/p0/C0.class")
+assert entries.contains("META-INF/versions/11/perf/p0/C0.class")
+
+// Maven prints e.g. "Total time: 12.345 s", "Total time:  01:05 min" or "Total time:  01:05 h"
+def times = []
+new File(basedir, "build.log").eachLine { line ->
+    def m = line =~ /Total time:\s+(?:([\d.,]+) s|(\d+):(\d+) min|(\d+):(\d+) h)/
+    if (m.find()) {
+        if (m.group(1) != null) {
+            times << (long) (Double.parseDouble(m.group(1).replace(',', '.')) * 1000)
+        } else if (m.group(2) != null) {
+            times << ((m.group(2) as long) * 60 + (m.group(3) as long)) * 1000
+        } else {
+            times << ((m.group(4) as long) * 3600 + (m.group(5) as long) * 60) * 1000
+        }
+    }
+}
+assert times.size() == 2 : "Expected the times of 2 invocations in the build log but found ${times.size()}."
+
+// the GC log lines look like "[0.123s][info][gc] GC(3) Pause Young (Normal) (G1 Evacuation Pause) 24M->4M(256M) 1.234ms"
+def peakHeap = { String name ->
+    def log = new File(basedir, name)
+    def peak = 0
+    if (log.isFile()) {
+        log.eachLine { line ->
+            def m = line =~ /(\d+)M->(\d+)M/
+            if (m.find()) {
+                peak = Math.max(peak, m.group(1) as int)
+            }
+        }
+    }
+    return peak
+}
+
+def results = new Properties()
+results["compile.time.ms"] = String.valueOf(times[0])
+results["compile.heap.peak.mb"] = String.valueOf(peakHeap("gc-compile.log"))
+results["package.time.ms"] = String.valueOf(times[1])
+results["package.heap.peak.mb"] = String.valueOf(peakHeap("gc-package.log"))
+
+def resultsFile = new File(basedir, "target/perf-results.properties")
+resultsFile.withOutputStream { results.store(it, "multi-release-jar-maven-plugin performance results") }
+
+println "Performance results (${resultsFile}):"
+results.sort().each { k, v -> println "  ${k} = ${v}" }
+
+def variable = { String name, String defaultValue ->
+    binding.hasVariable(name) && binding.getVariable(name) ? binding.getVariable(name) : defaultValue
+}
+
+def baselinePath = variable("perfBaseline", null)
+if (baselinePath) {
+    def baselineFile = new File(baselinePath)
+    assert baselineFile.isFile() : "The performance baseline ${baselineFile} does not exist."
+
+    def baseline = new Properties()
+    baselineFile.withInputStream { baseline.load(it) }
+
+    def threshold = variable("perfThreshold", "25") as double
+    def regressions = []
+    results.each { k, v ->
+        def base = baseline[k]
+        if (base != null && (base as double) > 0) {
+            def change = ((v as double) - (base as double)) / (base as double) * 100
+            if (change > threshold) {
+                regressions << "${k}: ${base} -> ${v} (+${String.format('%.1f', change)}%)"
+            }
+        }
+    }
+
+    assert regressions.isEmpty() : "Performance regressions over ${threshold}% found:\n  " + regressions.join("\n  ")
+}
+
+return true
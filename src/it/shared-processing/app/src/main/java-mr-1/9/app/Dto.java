@@ -0,0 +1,5 @@
+package app;
+
+public class Dto {
+    public String name;
+}
@@ -0,0 +1,6 @@
+package app;
+
+public class Dto {
+    public String name;
+    public String email;
+}
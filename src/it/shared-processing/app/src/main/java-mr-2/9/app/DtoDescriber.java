@@ -0,0 +1,7 @@
+package app;
+
+import processor.Describe;
+
+@Describe(Dto.class)
+public class DtoDescriber {
+}
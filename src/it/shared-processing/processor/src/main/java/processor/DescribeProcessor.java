@@ -0,0 +1,55 @@
+package processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+@SupportedAnnotationTypes("processor.Describe")
+public class DescribeProcessor extends AbstractProcessor {
+
+    @Override public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(Describe.class)) {
+            TypeMirror described;
+            try {
+                element.getAnnotation(Describe.class).value();
+                throw new IllegalStateException("Expected a MirroredTypeException.");
+            } catch (MirroredTypeException e) {
+                described = e.getTypeMirror();
+            }
+
+            TypeElement type = (TypeElement) processingEnv.getTypeUtils().asElement(described);
+            String fields = ElementFilter.fieldsIn(type.getEnclosedElements()).stream()
+                    .map(f -> f.getSimpleName().toString())
+                    .collect(Collectors.joining(","));
+
+            String pkg = ((PackageElement) element.getEnclosingElement()).getQualifiedName().toString();
+            String name = element.getSimpleName() + "Description";
+
+            try (Writer out = processingEnv.getFiler().createSourceFile(pkg + "." + name, element).openWriter()) {
+                out.write("package " + pkg + ";\n\n");
+                out.write("public class " + name + " {\n");
+                out.write("    public static final String FIELDS = \"" + fields + "\";\n");
+                out.write("}\n");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,10 @@
+// The unannotated Dto gained a field between the two invocations. The processor must have run again for release 9,
+// both the generated source and the compiled class must reflect the new field.
+
+def generated = new File(basedir, "app/target/generated-sources/annotations-9/app/DtoDescriberDescription.java")
+assert generated.isFile() : "The processor did not run for release 9."
+assert generated.text.contains('"name,email"') : "The generated source is stale: " + generated.text
+
+def compiled = new File(basedir, "app/target/classes-9/app/DtoDescriberDescription.class")
+assert compiled.isFile()
+assert new String(compiled.bytes, "ISO-8859-1").contains("name,email") : "The compiled class is stale."
@@ -0,0 +1,16 @@
+package app;
+
+import java.io.IOException;
+
+import lib.Lib;
+
+public class App {
+    public static String run() {
+        try {
+            Lib.work();
+        } catch (IOException e) {
+            return "failed";
+        }
+        return "9";
+    }
+}
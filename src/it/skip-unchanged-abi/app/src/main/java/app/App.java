@@ -0,0 +1,7 @@
+package app;
+
+public class App {
+    public static String run() {
+        return "8";
+    }
+}
@@ -0,0 +1,8 @@
+package lib;
+
+import java.io.IOException;
+
+public class Lib {
+    public static void work() throws IOException {
+    }
+}
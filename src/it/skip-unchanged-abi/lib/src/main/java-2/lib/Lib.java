@@ -0,0 +1,9 @@
+package lib;
+
+import java.io.IOException;
+
+public class Lib {
+    public static void work() throws IOException {
+        System.out.println("working");
+    }
+}
@@ -0,0 +1,6 @@
+package lib;
+
+public class Lib {
+    public static void work() throws Exception {
+    }
+}
@@ -0,0 +1,7 @@
+package lib;
+
+public class Version {
+    public static String get() {
+        return "8";
+    }
+}
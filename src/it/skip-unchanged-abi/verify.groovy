@@ -0,0 +1,38 @@
+// See invoker.properties for what each of the invocations changes.
+
+def invocations = new File(basedir, "build.log").text.split(/Scanning for projects/).drop(1)
+assert invocations.size() == 4 : "Expected the logs of 4 invocations, got " + invocations.size()
+
+// splits the log of an invocation to the logs of the individual modules
+def modules = { String log ->
+    def ret = [:].withDefault { new StringBuilder() }
+    def module = null
+    log.eachLine { line ->
+        def m = line =~ /--- .+ @ (\S+) ---/
+        if (m.find()) {
+            module = m.group(1)
+        }
+        if (module != null) {
+            ret[module].append(line).append('\n')
+        }
+    }
+    return ret.collectEntries { k, v -> [k, v.toString()] }
+}
+
+def skippedCompilation = "Neither the sources of release 9 nor the ABI of their dependencies changed. Skipping compilation."
+def skippedRepackaging = "The compiled classes did not change. Skipping the repackaging"
+
+def first = modules(invocations[0])
+assert !first.app.contains(skippedCompilation) : "Nothing can be skipped in a clean build."
+
+def bodyChange = modules(invocations[1])
+assert bodyChange.app.contains(skippedCompilation) : "Release 9 of the app was recompiled after a body-only change."
+
+def noChange = modules(invocations[2])
+assert noChange.lib.contains(skippedRepackaging) : "The lib was repackaged although nothing changed."
+assert noChange.app.contains(skippedRepackaging) : "The app was repackaged although nothing changed."
+
+def signatureChange = modules(invocations[3])
+assert signatureChange.app.contains("unreported exception java.lang.Exception") \
+    : "Release 9 of the app was not recompiled after the signature change."
+assert !signatureChange.app.contains(skippedCompilation)
@@ -0,0 +1,7 @@
+package app;
+
+public class Version {
+    public static String get() {
+        return "release 9";
+    }
+}
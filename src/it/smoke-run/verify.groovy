@@ -0,0 +1,20 @@
+// Release 9 must have been checked on the JVM running the build, even though it is not exactly Java 9. There is no JVM
+// older than Java 9 for the base classes, which must be reported as not checked.
+
+def version = System.getProperty("java.specification.version")
+def javaRelease = version.startsWith("1.") ? version.substring(2) : version
+
+def report = new File(basedir, "target/smoke-run/report.txt")
+assert report.isFile() : "The smoke run report was not written."
+
+def lines = report.readLines()
+def release9 = lines.find { it.startsWith("9 ") }
+assert release9 != null : "Release 9 is missing in the report: " + report.text
+assert release9.split(/\s+/)[1] == javaRelease : "Release 9 was not run on the build JVM: " + release9
+assert release9.trim().endsWith(" 0") : "Release 9 failed: " + report.text
+
+def base = lines.find { it.startsWith("base ") }
+assert base != null && base.contains("not checked") : "The base classes should not have been checked: " + report.text
+
+def output = new File(basedir, "target/smoke-run/9/output.log")
+assert output.text.contains("Running on release 9")
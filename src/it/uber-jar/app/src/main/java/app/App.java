@@ -0,0 +1,10 @@
+package app;
+
+import lib.Lib;
+import lib.Shadowed;
+
+public class App {
+    public static void main(String[] args) {
+        System.out.println(Lib.version() + " " + Shadowed.origin());
+    }
+}
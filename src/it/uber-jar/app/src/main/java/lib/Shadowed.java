@@ -0,0 +1,7 @@
+package lib;
+
+public class Shadowed {
+    public static String origin() {
+        return "app";
+    }
+}
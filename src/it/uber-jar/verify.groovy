@@ -0,0 +1,33 @@
+// The uber jar replaces the jar of the app module and must contain the classes of both modules, with the versioned
+// entries of lib only where they override the base entries from lib itself.
+
+def jar = new File(basedir, "app/target/app-0.jar")
+assert jar.isFile() : "The uber jar was not built."
+
+def jarFile = new java.util.jar.JarFile(jar)
+def entries
+def manifest
+def shadowed
+try {
+    entries = jarFile.entries().toList()*.name
+    manifest = jarFile.manifest
+    shadowed = jarFile.getInputStream(jarFile.getJarEntry("lib/Shadowed.class")).bytes
+} finally {
+    jarFile.close()
+}
+
+assert manifest.mainAttributes.getValue("Multi-Release") == "true"
+
+assert entries.contains("app/App.class")
+assert entries.contains("lib/Lib.class")
+assert entries.contains("META-INF/versions/9/lib/Lib.class")
+
+// the base lib.Shadowed is the one from the app, so the overlay from the lib jar must be dropped
+assert entries.contains("lib/Shadowed.class")
+assert !entries.contains("META-INF/versions/9/lib/Shadowed.class")
+assert new String(shadowed, "ISO-8859-1").contains("app")
+
+assert entries.count { it == "lib/Shadowed.class" } == 1
+
+def log = new File(basedir, "build.log").text
+assert log.contains("1 versioned entries were dropped")
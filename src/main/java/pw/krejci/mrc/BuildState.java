@@ -0,0 +1,68 @@
+package pw.krejci.mrc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Small helper for the bits of state the plugin keeps between builds in order to avoid redoing work that has not
+ * changed. Everything lives under {@code target/maven-status/multi-release-jar}, next to the state of the maven compiler
+ * plugin.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+final class BuildState {
+
+    private BuildState() {
+        throw new AssertionError();
+    }
+
+    static File getStateDirectory(File buildDirectory) {
+        return new File(new File(buildDirectory, "maven-status"), "multi-release-jar");
+    }
+
+    static File getStateFile(File buildDirectory, String release, String name) {
+        return new File(new File(getStateDirectory(buildDirectory), release), name);
+    }
+
+    /**
+     * @return the contents of the state file or null if it doesn't exist or cannot be read
+     */
+    static String load(File stateFile) {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+
+        try {
+            return new String(Files.readAllBytes(stateFile.toPath()), UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static void store(File stateFile, String value) throws IOException {
+        Files.createDirectories(stateFile.getParentFile().toPath());
+        Files.write(stateFile.toPath(), value.getBytes(UTF_8));
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported by the JVM.", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
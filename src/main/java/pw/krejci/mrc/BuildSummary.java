@@ -0,0 +1,179 @@
+package pw.krejci.mrc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The summary of the last successful build of a module. It records the digests of the inputs of each release, the
+ * binary interface (ABI) of the compiled classes and the inputs and the stamp of the produced jar.
+ *
+ * <p>The summary is stored in the build directory of the module so that the downstream modules can find it next to
+ * the classes or the jar they have on their classpath. If the ABI of an upstream module didn't change, the downstream
+ * modules don't need to recompile their release specific sources.
+ *
+ * <p>The summary is only kept up to date by the builds with {@code skipUnchanged} enabled. The other builds
+ * {@link #delete(File) delete} it, so that the downstream modules never trust an outdated ABI.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+final class BuildSummary {
+    private static final String FILE_NAME = "build-summary.properties";
+
+    private static final String ABI = "abi";
+    private static final String RELEASE_INPUTS_PREFIX = "release.inputs.";
+    private static final String JAR_INPUTS = "jar.inputs";
+    private static final String JAR_FILE = "jar.file";
+    private static final String JAR_STAMP = "jar.stamp";
+
+    private final File file;
+    private final Properties properties;
+
+    private BuildSummary(File file, Properties properties) {
+        this.file = file;
+        this.properties = properties;
+    }
+
+    static BuildSummary load(File buildDirectory) {
+        File file = new File(BuildState.getStateDirectory(buildDirectory), FILE_NAME);
+        Properties properties = new Properties();
+
+        if (file.isFile()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                properties.load(in);
+            } catch (IOException e) {
+                // an unreadable summary is as good as no summary - everything will just be rebuilt.
+                properties.clear();
+            }
+        }
+
+        return new BuildSummary(file, properties);
+    }
+
+    /**
+     * Deletes the summary from the build directory, if any.
+     */
+    static void delete(File buildDirectory) throws IOException {
+        Files.deleteIfExists(new File(BuildState.getStateDirectory(buildDirectory), FILE_NAME).toPath());
+    }
+
+    /**
+     * Finds the build summary of the module that produced the provided classpath element. The classpath element is
+     * either the output directory or the jar of the module, both of which live in the build directory of the module.
+     *
+     * @return the summary or null if the element was not produced by a module with the summary
+     */
+    static BuildSummary forClasspathElement(File element) {
+        File buildDirectory = element.getAbsoluteFile().getParentFile();
+        if (buildDirectory == null
+                || !new File(BuildState.getStateDirectory(buildDirectory), FILE_NAME).isFile()) {
+            return null;
+        }
+
+        BuildSummary summary = load(buildDirectory);
+
+        if (element.isFile() && !element.getName().equals(summary.properties.getProperty(JAR_FILE))) {
+            // the summary is from a different jar, e.g. a jar with a classifier
+            return null;
+        }
+
+        return summary.getAbi() == null ? null : summary;
+    }
+
+    void store() throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            properties.store(out, "multi-release-jar-maven-plugin build summary");
+        }
+    }
+
+    String getAbi() {
+        return properties.getProperty(ABI);
+    }
+
+    void setAbi(String abi) {
+        properties.setProperty(ABI, abi);
+    }
+
+    String getReleaseInputs(String release) {
+        return properties.getProperty(RELEASE_INPUTS_PREFIX + release);
+    }
+
+    void setReleaseInputs(String release, String inputs) {
+        properties.setProperty(RELEASE_INPUTS_PREFIX + release, inputs);
+    }
+
+    /**
+     * @return true if the jar recorded in the summary still exists, is untouched and was produced from the same inputs
+     */
+    boolean isJarUpToDate(File jar, String inputs) {
+        return jar.isFile() && inputs.equals(properties.getProperty(JAR_INPUTS))
+                && jar.getName().equals(properties.getProperty(JAR_FILE))
+                && stamp(jar).equals(properties.getProperty(JAR_STAMP));
+    }
+
+    void setJar(File jar, String inputs) {
+        properties.setProperty(JAR_INPUTS, inputs);
+        properties.setProperty(JAR_FILE, jar.getName());
+        properties.setProperty(JAR_STAMP, stamp(jar));
+    }
+
+    static String abiOf(Path classesDirectory) throws IOException {
+        MessageDigest digest = BuildState.newDigest();
+        updateAbi(digest, classesDirectory);
+        return BuildState.toHex(digest.digest());
+    }
+
+    /**
+     * Updates the digest with the ABI of all the classes in the provided directory.
+     */
+    static void updateAbi(MessageDigest digest, Path classesDirectory) throws IOException {
+        if (!Files.isDirectory(classesDirectory)) {
+            return;
+        }
+
+        List<Path> classes;
+        try (Stream<Path> files = Files.walk(classesDirectory)) {
+            classes = files.filter(p -> p.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+        }
+
+        for (Path c : classes) {
+            digest.update(classesDirectory.relativize(c).toString().getBytes(UTF_8));
+            ClassFile.read(Files.readAllBytes(c)).updateAbi(digest);
+        }
+    }
+
+    /**
+     * Updates the digest with the paths and timestamps of all the files in the provided directory. This is cheap and
+     * good enough to find out whether the directory changed since the last build.
+     */
+    static void updateStamps(MessageDigest digest, Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<Path> files;
+        try (Stream<Path> all = Files.walk(directory)) {
+            files = all.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        for (Path f : files) {
+            digest.update((directory.relativize(f) + ":" + stamp(f.toFile()) + "\n").getBytes(UTF_8));
+        }
+    }
+
+    private static String stamp(File file) {
+        return file.length() + "@" + file.lastModified();
+    }
+}
@@ -0,0 +1,365 @@
+package pw.krejci.mrc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal class file reader. It only reads as much of the class file as is needed to determine its binary interface
+ * (i.e. the parts of the class that other classes can compile against) and the classes it references.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+final class ClassFile {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    // synchronized, native, strictfp and synthetic don't influence the code compiled against the class
+    private static final int ABI_ACCESS_MASK = ~(0x0020 | 0x0100 | 0x0800 | ACC_SYNTHETIC);
+
+    private static final Pattern CLASS_IN_DESCRIPTOR = Pattern.compile("L([^;<]+)");
+
+    private final int access;
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+    private final Attributes attributes;
+    private final List<String> members;
+    private final Set<String> referencedClasses;
+
+    private ClassFile(int access, String name, String superName, List<String> interfaces, Attributes attributes,
+            List<String> members, Set<String> referencedClasses) {
+        this.access = access;
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.attributes = attributes;
+        this.members = members;
+        this.referencedClasses = referencedClasses;
+    }
+
+    static ClassFile read(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file.");
+        }
+
+        in.readUnsignedShort(); // minor
+        in.readUnsignedShort(); // major
+
+        int poolSize = in.readUnsignedShort();
+        Object[] pool = new Object[poolSize];
+        int[] classNameIndices = new int[poolSize];
+
+        for (int i = 1; i < poolSize; ++i) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // utf8
+                pool[i] = in.readUTF();
+                break;
+            case 3: // integer
+                pool[i] = in.readInt();
+                break;
+            case 4: // float
+                pool[i] = in.readFloat();
+                break;
+            case 5: // long
+                pool[i] = in.readLong();
+                ++i;
+                break;
+            case 6: // double
+                pool[i] = in.readDouble();
+                ++i;
+                break;
+            case 7: // class
+                classNameIndices[i] = in.readUnsignedShort();
+                break;
+            case 8: // string
+                pool[i] = new StringRef(in.readUnsignedShort());
+                break;
+            case 16: // method type
+            case 19: // module
+            case 20: // package
+                in.readUnsignedShort();
+                break;
+            case 15: // method handle
+                in.readUnsignedByte();
+                in.readUnsignedShort();
+                break;
+            case 9: // field ref
+            case 10: // method ref
+            case 11: // interface method ref
+            case 12: // name and type
+            case 17: // dynamic
+            case 18: // invoke dynamic
+                in.readInt();
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag + " at index " + i + ".");
+            }
+        }
+
+        Set<String> referencedClasses = new HashSet<>();
+        for (int idx : classNameIndices) {
+            if (idx != 0) {
+                String className = (String) pool[idx];
+                if (className.startsWith("[")) {
+                    int start = className.lastIndexOf('[') + 1;
+                    if (className.charAt(start) != 'L') {
+                        // array of primitives
+                        continue;
+                    }
+                    className = className.substring(start + 1, className.length() - 1);
+                }
+                referencedClasses.add(className);
+            }
+        }
+
+        int access = in.readUnsignedShort();
+        String name = className(pool, classNameIndices, in.readUnsignedShort());
+        String superName = className(pool, classNameIndices, in.readUnsignedShort());
+
+        int interfaceCount = in.readUnsignedShort();
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; ++i) {
+            interfaces.add(className(pool, classNameIndices, in.readUnsignedShort()));
+        }
+        Collections.sort(interfaces);
+
+        List<String> members = new ArrayList<>();
+        readMembers(in, pool, classNameIndices, "F ", members, referencedClasses);
+        readMembers(in, pool, classNameIndices, "M ", members, referencedClasses);
+        Collections.sort(members);
+
+        Attributes attributes = readAttributes(in, pool, classNameIndices);
+        // the other classes in the attribute are just the nested classes this class uses
+        attributes.innerClasses.removeIf(c -> !isOwnNesting(c, name));
+        addReferencedClasses(attributes.signature, referencedClasses);
+        for (String component : attributes.recordComponents) {
+            addReferencedClasses(component, referencedClasses);
+        }
+
+        return new ClassFile(access, name, superName, interfaces, attributes, members, referencedClasses);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the internal names of all the classes referenced from the constant pool of this class or from the types
+     * and signatures of the class and its members
+     */
+    Set<String> getReferencedClasses() {
+        return referencedClasses;
+    }
+
+    /**
+     * Updates the digest with the binary interface of this class, i.e. everything that can influence the compilation
+     * of the code using this class. Private and synthetic members are not part of it, neither is the code of the
+     * methods. The nested classes (together with their access flags), the permitted subclasses and the record
+     * components are, because the compiler reads them from the class file, too.
+     */
+    void updateAbi(MessageDigest digest) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(access & ABI_ACCESS_MASK).append(' ').append(name).append(' ').append(superName)
+                .append(' ').append(interfaces).append(' ').append(attributes.signature)
+                .append(" inner ").append(attributes.innerClasses)
+                .append(" permits ").append(attributes.permittedSubclasses)
+                .append(" record ").append(attributes.recordComponents).append('\n');
+        for (String m : members) {
+            sb.append(m).append('\n');
+        }
+        digest.update(sb.toString().getBytes(UTF_8));
+    }
+
+    private static String className(Object[] pool, int[] classNameIndices, int index) {
+        return index == 0 ? null : (String) pool[classNameIndices[index]];
+    }
+
+    private static void readMembers(DataInputStream in, Object[] pool, int[] classNameIndices, String kind,
+            List<String> members, Set<String> referencedClasses) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; ++i) {
+            int access = in.readUnsignedShort();
+            String name = (String) pool[in.readUnsignedShort()];
+            String descriptor = (String) pool[in.readUnsignedShort()];
+            Attributes attributes = readAttributes(in, pool, classNameIndices);
+
+            // the types used only in the signatures of the members are not in the constant pool as classes
+            addReferencedClasses(descriptor, referencedClasses);
+            addReferencedClasses(attributes.signature, referencedClasses);
+
+            if ((access & (ACC_PRIVATE | ACC_SYNTHETIC)) != 0) {
+                continue;
+            }
+
+            // the constant values are inlined into the code using them, so they are part of the ABI. So are
+            // the checked exceptions the callers need to handle and the defaults of the annotation elements.
+            members.add(kind + (access & ABI_ACCESS_MASK) + " " + name + " " + descriptor + " " + attributes.signature
+                    + " " + attributes.constantValue + " throws " + attributes.exceptions + " default "
+                    + attributes.annotationDefault);
+        }
+    }
+
+    private static void addReferencedClasses(String descriptor, Set<String> referencedClasses) {
+        if (descriptor == null) {
+            return;
+        }
+
+        Matcher m = CLASS_IN_DESCRIPTOR.matcher(descriptor);
+        while (m.find()) {
+            referencedClasses.add(m.group(1));
+        }
+    }
+
+    private static Attributes readAttributes(DataInputStream in, Object[] pool, int[] classNameIndices)
+            throws IOException {
+        Attributes ret = new Attributes();
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; ++i) {
+            String name = (String) pool[in.readUnsignedShort()];
+            int length = in.readInt();
+            switch (name) {
+            case "Signature":
+                ret.signature = (String) pool[in.readUnsignedShort()];
+                break;
+            case "ConstantValue":
+                ret.constantValue = constant(pool, in.readUnsignedShort());
+                break;
+            case "Exceptions":
+                ret.exceptions = readClassNames(in, pool, classNameIndices);
+                break;
+            case "PermittedSubclasses":
+                ret.permittedSubclasses = readClassNames(in, pool, classNameIndices);
+                break;
+            case "AnnotationDefault":
+                StringBuilder value = new StringBuilder();
+                readElementValue(in, pool, classNameIndices, value);
+                ret.annotationDefault = value.toString();
+                break;
+            case "InnerClasses":
+                int classCount = in.readUnsignedShort();
+                for (int j = 0; j < classCount; ++j) {
+                    String inner = className(pool, classNameIndices, in.readUnsignedShort());
+                    String outer = className(pool, classNameIndices, in.readUnsignedShort());
+                    int innerNameIndex = in.readUnsignedShort();
+                    String innerName = innerNameIndex == 0 ? null : (String) pool[innerNameIndex];
+                    int access = in.readUnsignedShort();
+                    ret.innerClasses.add(inner + " " + outer + " " + innerName + " " + (access & ABI_ACCESS_MASK));
+                }
+                Collections.sort(ret.innerClasses);
+                break;
+            case "Record":
+                int componentCount = in.readUnsignedShort();
+                for (int j = 0; j < componentCount; ++j) {
+                    String componentName = (String) pool[in.readUnsignedShort()];
+                    String descriptor = (String) pool[in.readUnsignedShort()];
+                    // the order of the components is significant - it is the order of the canonical constructor
+                    ret.recordComponents.add(componentName + " " + descriptor + " "
+                            + readAttributes(in, pool, classNameIndices).signature);
+                }
+                break;
+            default:
+                in.skipBytes(length);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param innerClass the inner class entry as formatted by {@link #readAttributes(DataInputStream, Object[], int[])}
+     */
+    private static boolean isOwnNesting(String innerClass, String className) {
+        String[] parts = innerClass.split(" ");
+        return parts[0].equals(className) || parts[1].equals(className);
+    }
+
+    private static List<String> readClassNames(DataInputStream in, Object[] pool, int[] classNameIndices)
+            throws IOException {
+        int count = in.readUnsignedShort();
+        List<String> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            ret.add(className(pool, classNameIndices, in.readUnsignedShort()));
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private static void readElementValue(DataInputStream in, Object[] pool, int[] classNameIndices,
+            StringBuilder value) throws IOException {
+        char tag = (char) in.readUnsignedByte();
+        value.append(tag);
+        switch (tag) {
+        case 'e': // enum constant
+            value.append(pool[in.readUnsignedShort()]).append('.').append(pool[in.readUnsignedShort()]);
+            break;
+        case 'c': // class literal
+            value.append(pool[in.readUnsignedShort()]);
+            break;
+        case '@':
+            readAnnotation(in, pool, classNameIndices, value);
+            break;
+        case '[':
+            int count = in.readUnsignedShort();
+            value.append('{');
+            for (int i = 0; i < count; ++i) {
+                readElementValue(in, pool, classNameIndices, value);
+                value.append(',');
+            }
+            value.append('}');
+            break;
+        default: // primitive or string constant
+            value.append(constant(pool, in.readUnsignedShort()));
+        }
+    }
+
+    private static void readAnnotation(DataInputStream in, Object[] pool, int[] classNameIndices, StringBuilder value)
+            throws IOException {
+        value.append(pool[in.readUnsignedShort()]).append('(');
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; ++i) {
+            value.append(pool[in.readUnsignedShort()]).append('=');
+            readElementValue(in, pool, classNameIndices, value);
+            value.append(',');
+        }
+        value.append(')');
+    }
+
+    private static Object constant(Object[] pool, int index) {
+        Object value = pool[index];
+        return value instanceof StringRef ? pool[((StringRef) value).index] : value;
+    }
+
+    private static final class Attributes {
+        String signature;
+        Object constantValue;
+        List<String> exceptions = Collections.emptyList();
+        String annotationDefault;
+        List<String> innerClasses = new ArrayList<>();
+        List<String> permittedSubclasses = Collections.emptyList();
+        List<String> recordComponents = new ArrayList<>();
+    }
+
+    private static final class StringRef {
+        final int index;
+
+        StringRef(int index) {
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package pw.krejci.mrc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A snapshot of the jars on the compile classpath - for each jar, the packages it contains and the packages its classes
+ * refer to - and of the packages the classes in the directories on the classpath (e.g. the main classes) refer to.
+ * The snapshot is stored in the build directory and the jars and the classes are only read again when they change, so
+ * in the subsequent builds, building the snapshot costs just a stat of each jar and class file.
+ *
+ * <p>The snapshot is used to prune the classpath of the release specific compilations to just the jars the release
+ * can need. These are the jars containing the packages the release sources and the main classes refer to, and,
+ * transitively, the jars containing the packages that the classes of these jars refer to. Javac then doesn't need to
+ * open and index the rest of the jars for every release.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+final class ClasspathSnapshot {
+    private static final String FILE_NAME = "classpath-snapshot";
+    private static final String CLASSES_FILE_NAME = "classpath-snapshot-classes";
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final String UNREADABLE = "?";
+    private static final String PROCESSOR_SERVICE = "META-INF/services/javax.annotation.processing.Processor";
+
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.$]+)\\s*;", Pattern.MULTILINE);
+    private static final Pattern IMPORT = Pattern.compile("^\\s*import\\s+(?:static\\s+)?([\\w.$]+?)(?:\\.\\*)?\\s*;",
+            Pattern.MULTILINE);
+    private static final Pattern COMMENT = Pattern.compile("/\\*.*?\\*/|//[^\\r\\n]*", Pattern.DOTALL);
+
+    private final Map<String, JarIndex> jars;
+    private final Map<String, List<String>> jarsByPackage = new HashMap<>();
+    private final Set<String> directoryReferencedPackages = new HashSet<>();
+    private final Map<String, String> unreadableClasses = new TreeMap<>();
+
+    private ClasspathSnapshot(Map<String, JarIndex> jars, Map<String, ClassReferences> directoryClasses) {
+        this.jars = jars;
+        directoryClasses.forEach((path, c) -> {
+            if (c.referencedPackages == null) {
+                unreadableClasses.put(path, c.failure);
+            } else {
+                directoryReferencedPackages.addAll(c.referencedPackages);
+            }
+        });
+        jars.forEach((jar, index) -> index.packages
+                .forEach(p -> jarsByPackage.computeIfAbsent(p, k -> new ArrayList<>()).add(jar)));
+    }
+
+    /**
+     * Builds the snapshot of the provided classpath. Only the jars and the classes in the directories that changed
+     * since the last snapshot stored in the build directory are indexed, the snapshot is then stored for the next
+     * build.
+     */
+    static ClasspathSnapshot build(List<String> classpath, File buildDirectory) throws IOException {
+        File stateDirectory = BuildState.getStateDirectory(buildDirectory);
+        File file = new File(stateDirectory, FILE_NAME);
+        File classesFile = new File(stateDirectory, CLASSES_FILE_NAME);
+        Map<String, JarIndex> previous = load(file);
+        Map<String, ClassReferences> previousClasses = loadClasses(classesFile);
+
+        Map<String, JarIndex> jars = new LinkedHashMap<>();
+        Map<String, ClassReferences> directoryClasses = new LinkedHashMap<>();
+        List<File> changed = new ArrayList<>();
+        boolean classesChanged = false;
+
+        for (String element : classpath) {
+            File jar = new File(element);
+            if (jar.isDirectory()) {
+                classesChanged |= indexDirectory(jar, previousClasses, directoryClasses);
+                continue;
+            } else if (!jar.isFile()) {
+                continue;
+            }
+
+            JarIndex index = previous.get(jar.getAbsolutePath());
+            if (index != null && index.stamp.equals(stamp(jar))) {
+                jars.put(jar.getAbsolutePath(), index);
+            } else {
+                changed.add(jar);
+                // keep the classpath order
+                jars.put(jar.getAbsolutePath(), null);
+            }
+        }
+
+        if (!changed.isEmpty() || previous.size() != jars.size()) {
+            Map<String, JarIndex> indexed = new HashMap<>();
+            for (JarIndex index : indexAll(changed)) {
+                indexed.put(index.path, index);
+            }
+            jars.replaceAll((path, index) -> index == null ? indexed.get(path) : index);
+
+            store(file, jars.values());
+        }
+
+        if (classesChanged || previousClasses.size() != directoryClasses.size()) {
+            storeClasses(classesFile, directoryClasses);
+        }
+
+        return new ClasspathSnapshot(jars, directoryClasses);
+    }
+
+    /**
+     * Prunes the provided classpath to the elements that can be needed to compile against the provided packages.
+     * The elements that are not jars in the snapshot (i.e. directories) are always kept.
+     *
+     * @param classpath the classpath to prune
+     * @param packages the internal names of the packages (e.g. {@code java/lang}) the compiled code refers to
+     */
+    List<String> prune(List<String> classpath, Set<String> packages) {
+        Set<String> needed = new HashSet<>();
+        Set<String> seenPackages = new HashSet<>();
+        Deque<String> todo = new ArrayDeque<>(packages);
+
+        jars.forEach((jar, index) -> {
+            if (index.alwaysNeeded) {
+                needed.add(jar);
+                todo.addAll(index.referencedPackages);
+            }
+        });
+
+        while (!todo.isEmpty()) {
+            String pkg = todo.poll();
+            if (!seenPackages.add(pkg)) {
+                continue;
+            }
+
+            for (String jar : jarsByPackage.getOrDefault(pkg, Collections.emptyList())) {
+                if (needed.add(jar)) {
+                    todo.addAll(jars.get(jar).referencedPackages);
+                }
+            }
+        }
+
+        List<String> ret = new ArrayList<>(classpath.size());
+        for (String element : classpath) {
+            String path = new File(element).getAbsolutePath();
+            if (!jars.containsKey(path) || needed.contains(path)) {
+                ret.add(element);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the internal names of the packages referred to from the classes in the directories on the classpath.
+     * This doesn't include the references from the {@link #getUnreadableClasses() unreadable classes}.
+     */
+    Set<String> getDirectoryReferencedPackages() {
+        return directoryReferencedPackages;
+    }
+
+    /**
+     * @return the class files in the directories on the classpath that could not be read, with the reasons. We can't
+     * tell what these classes need, so the classpath must not be pruned if there are any.
+     */
+    Map<String, String> getUnreadableClasses() {
+        return unreadableClasses;
+    }
+
+    /**
+     * Finds the packages the sources in the provided directory declare and import. Because the sources are not
+     * compiled yet, we can't tell a nested class from a package in the imports, so every prefix of each import is
+     * considered a package.
+     *
+     * @return the internal names of the packages
+     */
+    static Set<String> getReferencedPackagesFromSources(File sourceDirectory) throws IOException {
+        Set<String> ret = new HashSet<>();
+        if (!sourceDirectory.isDirectory()) {
+            return ret;
+        }
+
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(sourceDirectory.toPath())) {
+            sources = files.filter(p -> p.toString().endsWith(".java")).collect(Collectors.toList());
+        }
+
+        for (Path source : sources) {
+            String code = COMMENT.matcher(new String(Files.readAllBytes(source), UTF_8)).replaceAll("");
+
+            Matcher m = PACKAGE.matcher(code);
+            if (m.find()) {
+                ret.add(m.group(1).replace('.', '/'));
+            }
+
+            m = IMPORT.matcher(code);
+            while (m.find()) {
+                String name = m.group(1).replace('.', '/');
+                int idx = -1;
+                while ((idx = name.indexOf('/', idx + 1)) != -1) {
+                    ret.add(name.substring(0, idx));
+                }
+                ret.add(name);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Finds the packages referred to from each class in the provided directory. Only the classes that changed since
+     * the previous snapshot are read.
+     *
+     * @return true if any of the classes was read
+     */
+    private static boolean indexDirectory(File directory, Map<String, ClassReferences> previous,
+            Map<String, ClassReferences> classes) throws IOException {
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            classFiles = files.filter(p -> p.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+        }
+
+        boolean changed = false;
+        for (Path c : classFiles) {
+            File classFile = c.toFile().getAbsoluteFile();
+            String stamp = stamp(classFile);
+
+            ClassReferences references = previous.get(classFile.getPath());
+            if (references == null || !references.stamp.equals(stamp)) {
+                Set<String> referencedPackages = new TreeSet<>();
+                try {
+                    for (String referenced : ClassFile.read(Files.readAllBytes(c)).getReferencedClasses()) {
+                        referencedPackages.add(getPackage(referenced));
+                    }
+                    references = new ClassReferences(stamp, referencedPackages, null);
+                } catch (IOException | RuntimeException e) {
+                    references = new ClassReferences(stamp, null, e.toString());
+                }
+                changed = true;
+            }
+
+            classes.put(classFile.getPath(), references);
+        }
+
+        return changed;
+    }
+
+    private static List<JarIndex> indexAll(List<File> jars) throws IOException {
+        List<JarIndex> ret = Collections.synchronizedList(new ArrayList<>());
+        List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+
+        jars.parallelStream().forEach(jar -> {
+            try {
+                ret.add(index(jar));
+            } catch (IOException e) {
+                failures.add(e);
+            }
+        });
+
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+
+        return ret;
+    }
+
+    private static JarIndex index(File jar) throws IOException {
+        Set<String> packages = new TreeSet<>();
+        Set<String> referencedPackages = new TreeSet<>();
+        boolean alwaysNeeded = false;
+
+        try (JarFile file = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+
+                if (name.equals(PROCESSOR_SERVICE)) {
+                    // the annotation processors are looked up on the classpath
+                    alwaysNeeded = true;
+                    continue;
+                }
+
+                if (!name.endsWith(".class") || name.endsWith("module-info.class")) {
+                    continue;
+                }
+
+                if (name.startsWith(VERSIONS_PREFIX)) {
+                    int idx = name.indexOf('/', VERSIONS_PREFIX.length());
+                    if (idx == -1) {
+                        continue;
+                    }
+                    name = name.substring(idx + 1);
+                }
+
+                packages.add(getPackage(name));
+
+                byte[] bytes;
+                try (InputStream in = file.getInputStream(entry)) {
+                    bytes = readFully(in);
+                }
+
+                try {
+                    for (String referenced : ClassFile.read(bytes).getReferencedClasses()) {
+                        referencedPackages.add(getPackage(referenced));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // we can't tell what the class needs, so let's not remove this jar from any classpath
+                    alwaysNeeded = true;
+                }
+            }
+        }
+
+        referencedPackages.removeAll(packages);
+
+        return new JarIndex(jar.getAbsolutePath(), stamp(jar), alwaysNeeded, packages, referencedPackages);
+    }
+
+    private static Map<String, JarIndex> load(File file) {
+        Map<String, JarIndex> ret = new HashMap<>();
+        if (!file.isFile()) {
+            return ret;
+        }
+
+        try {
+            for (String line : Files.readAllLines(file.toPath(), UTF_8)) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 5) {
+                    // a corrupted snapshot - just index everything again
+                    return new HashMap<>();
+                }
+
+                ret.put(parts[0], new JarIndex(parts[0], parts[1], "always".equals(parts[2]), split(parts[3]),
+                        split(parts[4])));
+            }
+        } catch (IOException e) {
+            return new HashMap<>();
+        }
+
+        return ret;
+    }
+
+    private static void store(File file, Collection<JarIndex> jars) throws IOException {
+        List<String> lines = new ArrayList<>(jars.size());
+        for (JarIndex index : jars) {
+            lines.add(index.path + "\t" + index.stamp + "\t" + (index.alwaysNeeded ? "always" : "pruned") + "\t"
+                    + String.join(",", index.packages) + "\t" + String.join(",", index.referencedPackages));
+        }
+
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), lines, UTF_8);
+    }
+
+    private static Map<String, ClassReferences> loadClasses(File file) {
+        Map<String, ClassReferences> ret = new HashMap<>();
+        if (!file.isFile()) {
+            return ret;
+        }
+
+        try {
+            for (String line : Files.readAllLines(file.toPath(), UTF_8)) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 3) {
+                    // a corrupted snapshot - just read all the classes again
+                    return new HashMap<>();
+                }
+
+                ret.put(parts[0], UNREADABLE.equals(parts[2])
+                        ? new ClassReferences(parts[1], null, "could not be read in a previous build")
+                        : new ClassReferences(parts[1], split(parts[2]), null));
+            }
+        } catch (IOException e) {
+            return new HashMap<>();
+        }
+
+        return ret;
+    }
+
+    private static void storeClasses(File file, Map<String, ClassReferences> classes) throws IOException {
+        List<String> lines = new ArrayList<>(classes.size());
+        classes.forEach((path, references) -> lines.add(path + "\t" + references.stamp + "\t"
+                + (references.referencedPackages == null
+                ? UNREADABLE
+                : String.join(",", references.referencedPackages))));
+
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), lines, UTF_8);
+    }
+
+    private static Set<String> split(String list) {
+        return list.isEmpty() ? Collections.emptySet() : new HashSet<>(Arrays.asList(list.split(",")));
+    }
+
+    private static String getPackage(String internalName) {
+        int idx = internalName.lastIndexOf('/');
+        return idx == -1 ? "" : internalName.substring(0, idx);
+    }
+
+    private static String stamp(File file) {
+        return file.length() + "@" + file.lastModified();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int len = 0;
+        int cnt;
+        while ((cnt = in.read(buffer, len, buffer.length - len)) != -1) {
+            len += cnt;
+            if (len == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return Arrays.copyOf(buffer, len);
+    }
+
+    private static final class ClassReferences {
+        final String stamp;
+        // null if the class could not be read
+        final Set<String> referencedPackages;
+        final String failure;
+
+        ClassReferences(String stamp, Set<String> referencedPackages, String failure) {
+            this.stamp = stamp;
+            this.referencedPackages = referencedPackages;
+            this.failure = failure;
+        }
+    }
+
+    private static final class JarIndex {
+        final String path;
+        final String stamp;
+        final boolean alwaysNeeded;
+        final Set<String> packages;
+        final Set<String> referencedPackages;
+
+        JarIndex(String path, String stamp, boolean alwaysNeeded, Set<String> packages,
+                Set<String> referencedPackages) {
+            this.path = path;
+            this.stamp = stamp;
+            this.alwaysNeeded = alwaysNeeded;
+            this.packages = packages;
+            this.referencedPackages = referencedPackages;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package pw.krejci.mrc;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything a {@link CompilerBackend} needs to know to compile a set of sources.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+public final class CompilationRequest {
+    private final List<File> sources;
+    private final List<String> classpath;
+    private final File outputDirectory;
+    private final List<String> options;
+
+    /**
+     * @param sources the source files to compile
+     * @param classpath the classpath to compile against
+     * @param outputDirectory the directory to put the compiled classes to
+     * @param options the options for the compiler, in the javac command line format, without the classpath and the
+     *                output directory
+     */
+    public CompilationRequest(List<File> sources, List<String> classpath, File outputDirectory, List<String> options) {
+        this.sources = unmodifiableList(new ArrayList<>(sources));
+        this.classpath = unmodifiableList(new ArrayList<>(classpath));
+        this.outputDirectory = outputDirectory;
+        this.options = unmodifiableList(new ArrayList<>(options));
+    }
+
+    public List<File> getSources() {
+        return sources;
+    }
+
+    public List<String> getClasspath() {
+        return classpath;
+    }
+
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public List<String> getOptions() {
+        return options;
+    }
+
+    /**
+     * @return the options together with the output directory and the classpath, in the javac command line format.
+     * The classpath is always specified, even if empty, so that it is never taken from the environment.
+     */
+    public List<String> getAllOptions() {
+        List<String> ret = new ArrayList<>(options);
+        ret.add("-d");
+        ret.add(outputDirectory.getAbsolutePath());
+        ret.add("-classpath");
+        ret.add(String.join(File.pathSeparator, classpath));
+        return ret;
+    }
+}
@@ -0,0 +1,32 @@
+package pw.krejci.mrc;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.compiler.CompilerMessage;
+
+/**
+ * The outcome of a compilation done by a {@link CompilerBackend}.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+public final class CompilationResult {
+    private final boolean success;
+    private final List<CompilerMessage> messages;
+
+    public CompilationResult(boolean success, List<CompilerMessage> messages) {
+        this.success = success;
+        this.messages = unmodifiableList(new ArrayList<>(messages));
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public List<CompilerMessage> getMessages() {
+        return messages;
+    }
+}
@@ -76,6 +76,7 @@ public class CompileConfiguration {
         private Boolean forceJavacCompilerUse;
         private List<String> fileExtensions;
         private Boolean useIncrementalCompilation;
+        private String compilerBackend;
 
         public Set<String> getIncludes() {
             return includes;
@@ -365,5 +366,13 @@ public class CompileConfiguration {
         public void setUseIncrementalCompilation(Boolean useIncrementalCompilation) {
             this.useIncrementalCompilation = useIncrementalCompilation;
         }
+
+        public String getCompilerBackend() {
+            return compilerBackend;
+        }
+
+        public void setCompilerBackend(String compilerBackend) {
+            this.compilerBackend = compilerBackend;
+        }
     }
 }
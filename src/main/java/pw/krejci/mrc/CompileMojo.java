@@ -1,5 +1,6 @@
 package pw.krejci.mrc;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.asLifoQueue;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.emptySet;
@@ -9,35 +10,51 @@ import static java.util.stream.Collectors.toList;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.compiler.AbstractCompilerMojo;
 import org.apache.maven.plugin.compiler.CompilationFailureException;
 import org.apache.maven.plugin.compiler.CompilerMojo;
+import org.apache.maven.plugin.compiler.DependencyCoordinate;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.util.scan.InclusionScanException;
 import org.codehaus.plexus.compiler.util.scan.SimpleSourceInclusionScanner;
 import org.codehaus.plexus.compiler.util.scan.SourceInclusionScanner;
 import org.codehaus.plexus.compiler.util.scan.StaleSourceScanner;
+import org.codehaus.plexus.compiler.util.scan.mapping.SuffixMapping;
 
 import pw.krejci.mrc.CompileConfiguration.Configuration;
 
@@ -45,10 +62,14 @@ import pw.krejci.mrc.CompileConfiguration.Configuration;
  * @author Lukas Krejci
  * @since 0.1.0
  */
-@Mojo(name = "compile", defaultPhase = LifecyclePhase.COMPILE,
+@Mojo(name = "compile", defaultPhase = LifecyclePhase.COMPILE, threadSafe = true,
         requiresDependencyResolution = ResolutionScope.COMPILE)
 public class CompileMojo extends CompilerMojo {
 
+    private static final Pattern COMMENT = Pattern.compile("/\\*.*?\\*/|//[^\\r\\n]*", Pattern.DOTALL);
+
+    private static final Pattern MODULE_NAME = Pattern.compile("\\bmodule\\s+([\\w.$]+)\\s*\\{");
+
     @Parameter(defaultValue = "${basedir}/src/main/java-mr")
     private File multiReleaseSourcesDirectory;
 
@@ -69,14 +90,80 @@ public class CompileMojo extends CompilerMojo {
     @Parameter
     private Set<String> excludes = new HashSet<>();
 
+    /**
+     * If true, the annotation processors run only once, during the compilation of the main sources. The classes they
+     * generate are visible to the releases through the classpath. The sources of a release are only processed again if
+     * any of them, the ABI of the main classes and the dependencies or the configuration of the annotation processing
+     * changed since the last build. The sources generated for a release go to
+     * a separate directory (the generated sources directory suffixed with the release) so that the runs for different
+     * releases never overwrite each other.
+     */
+    @Parameter(property = "multi-release-jar.shareAnnotationProcessing", defaultValue = "false")
+    private boolean shareAnnotationProcessing;
+
+    /**
+     * If true, the compilation of the sources of a release is skipped if neither they nor the ABI of the classes they
+     * are compiled against (the main classes of the module and its dependencies) changed since the last successful
+     * build. The ABI of the upstream modules built by this plugin is read from their build summary.
+     */
+    @Parameter(property = "multi-release-jar.skipUnchanged", defaultValue = "false")
+    private boolean skipUnchanged;
+
+    /**
+     * The compiler backend to compile the release specific sources with. The default, {@code plexus}, uses
+     * the compiler configured in the maven compiler plugin. The built-in alternatives are {@code javac} (in-process
+     * javac), {@code ecj} (the Eclipse compiler, which needs to be added as a dependency of the plugin) and
+     * {@code forked} (javac in a separate process, with the number of concurrent processes limited to the number of
+     * processors). Can be overridden for each release in the per-release
+     * configuration. The module descriptors are always compiled using the {@code plexus} backend.
+     */
+    @Parameter(property = "multi-release-jar.compilerBackend", defaultValue = CompilerBackends.PLEXUS)
+    private String compilerBackend;
+
+    /**
+     * If true, the sources of each release are compiled against only the jars they can need - the jars containing
+     * the packages the release sources, the main classes and the other directories on the classpath refer to, together
+     * with the jars these jars refer to. The packages in the jars are indexed in a classpath snapshot stored in
+     * the build directory, which is reused in the next builds for the jars that didn't change. If a release fails to
+     * compile against the pruned classpath, it is compiled again against the full classpath.
+     */
+    @Parameter(property = "multi-release-jar.pruneClasspath", defaultValue = "false")
+    private boolean pruneClasspath;
+
+    private final Map<String, CompilerBackend> backends = new HashMap<>();
+
+    private ClasspathSnapshot classpathSnapshot;
+    private Set<String> classpathReferencedPackages;
+    private Set<String> releaseReferencedPackages;
+
     private CompileConfiguration currentConfiguration;
     private String currentSourceDirectory;
     private String defaultOutputDirectory;
     private String defaultSourceDirectory;
+    private File defaultGeneratedSourcesDirectory;
     private boolean compilingModuleDescriptor;
+    private boolean compilingGeneratedSources;
+    private File redirectedOutputDirectory;
+    private File redirectedGeneratedSourcesDirectory;
+    private String backendOverride;
+    private DeferredLog prunedAttemptLog;
+    private String dependenciesAbi;
 
     @Override public void execute() throws MojoExecutionException, CompilationFailureException {
-        if (!MultiReleaseJarSupport.isAvailable() || !multiReleaseSourcesDirectory.exists()) {
+        File buildDirectory = new File(getProject().getBuild().getDirectory());
+        boolean multiRelease = MultiReleaseJarSupport.isAvailable() && multiReleaseSourcesDirectory.exists();
+
+        // only the builds skipping the unchanged releases keep the summary up to date, the downstream modules must not
+        // find an outdated one
+        if (!skipUnchanged || !multiRelease) {
+            try {
+                BuildSummary.delete(buildDirectory);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to delete the outdated build summary.", e);
+            }
+        }
+
+        if (!multiRelease) {
             if (!MultiReleaseJarSupport.isAvailable()) {
                 getLog().info("This java version does not support multi-release jars.");
             }
@@ -84,54 +171,70 @@ public class CompileMojo extends CompilerMojo {
             return;
         }
 
-        Map<String, CompileConfiguration> configMap;
-        if (perReleaseConfiguration == null || perReleaseConfiguration.isEmpty()) {
-            configMap = emptyMap();
-        } else {
-            configMap = perReleaseConfiguration.stream()
-                    .collect(Collectors.toMap(CompileConfiguration::getRelease, identity()));
-        }
+        Map<String, CompileConfiguration> configMap = getConfigurationsPerRelease();
 
-        defaultOutputDirectory = getProject().getBuild().getOutputDirectory();
-        defaultSourceDirectory = getProject().getBuild().getSourceDirectory();
+        initializeDefaults();
 
         super.execute();
 
+        String defaultProc = getProc();
+
+        BuildSummary summary = null;
+        String mainAbi = null;
+        dependenciesAbi = null;
+
         try {
-            //noinspection ConstantConditions
-            for (File mrBase : multiReleaseSourcesDirectory.listFiles(File::isDirectory)) {
-                String release = mrBase.getName();
-                if (configMap.containsKey(release)) {
-                    currentConfiguration = configMap.get(release);
-                } else {
-                    currentConfiguration = CompileConfiguration.emptyForRelease(release);
-                }
+            if (skipUnchanged) {
+                summary = BuildSummary.load(buildDirectory);
+            }
 
-                currentSourceDirectory = mrBase.getAbsolutePath();
+            if (skipUnchanged || shareAnnotationProcessing) {
+                mainAbi = BuildSummary.abiOf(new File(defaultOutputDirectory).toPath());
+                dependenciesAbi = computeDependenciesAbi(mainAbi);
+            }
 
-                getProject().getBuild().setOutputDirectory(getOutputDirectory().toString());
+            if (pruneClasspath) {
+                snapshotClasspath(buildDirectory);
+            }
 
-                if (currentConfiguration.getConfiguration().getRelease() == null) {
-                    currentConfiguration.getConfiguration().setRelease(release);
-                }
+            //noinspection ConstantConditions
+            for (File mrBase : multiReleaseSourcesDirectory.listFiles(File::isDirectory)) {
+                String release = mrBase.getName();
+                setUpRelease(mrBase, configMap);
 
-                if (currentConfiguration.getConfiguration().getSource() == null) {
-                    currentConfiguration.getConfiguration().setSource(release);
+                String releaseInputs = null;
+                if (skipUnchanged) {
+                    releaseInputs = computeReleaseInputsDigest(mrBase.toPath(), dependenciesAbi);
+                    boolean descriptorCompiled = !new File(mrBase, "module-info.java").exists()
+                            || new File(getOutputDirectoryForModuleDescriptor(new File(defaultOutputDirectory), release),
+                            "module-info.class").exists();
+                    if (releaseInputs.equals(summary.getReleaseInputs(release)) && getOutputDirectory().isDirectory()
+                            && descriptorCompiled) {
+                        getLog().info("Neither the sources of release " + release
+                                + " nor the ABI of their dependencies changed. Skipping compilation.");
+                        continue;
+                    }
                 }
 
-                if (currentConfiguration.getConfiguration().getTarget() == null) {
-                    currentConfiguration.getConfiguration().setTarget(release);
-                }
+                String releaseProc = currentConfiguration.getConfiguration().getProc() == null
+                        ? defaultProc
+                        : currentConfiguration.getConfiguration().getProc();
 
-                if (currentConfiguration.getConfiguration().getCompilerArgs() != null) {
-                    this.compilerArgs = currentConfiguration.getConfiguration().getCompilerArgs();
-                }
+                File processingInputsState = BuildState.getStateFile(buildDirectory, release, "processing-inputs");
+                String processingInputs = null;
 
-                if (currentConfiguration.getConfiguration().getRelease() != null) {
-                    this.release = currentConfiguration.getConfiguration().getRelease();
+                if (shareAnnotationProcessing) {
+                    processingInputs = computeProcessingInputsDigest(mrBase.toPath(), dependenciesAbi, releaseProc);
+                    if (processingInputs.equals(BuildState.load(processingInputsState))
+                            && getReleaseGeneratedSourcesDirectory().isDirectory()) {
+                        getLog().info("Neither the sources of release " + release + ", the ABI of their dependencies"
+                                + " nor the annotation processors changed. Skipping annotation processing.");
+                        releaseProc = "none";
+                    }
                 }
 
                 File moduleDescriptor = new File(mrBase, "module-info.java");
+                File stagedDescriptor = null;
 
                 if (moduleDescriptor.exists()) {
                     // now, magic. In order to be able to effectively compile all sources just once, we need to make
@@ -139,84 +242,871 @@ public class CompileMojo extends CompilerMojo {
                     // directory than the rest of the MR sources. This is because module-info.java is compiled even if
                     // it is not specifically mentioned amongst the source files. Because the main sources are already
                     // compiled above we want to just reference them by classpath, not have them compiled again in the
-                    // target folder of this MR "section". But that would fail compilation, because module-info.java
-                    // would not be able to find their sources (if we added the base sources to the source path then any
-                    // referenced class (i.e. a class used in the MR sources) would be compiled again - we don't want
-                    // that).
+                    // target folder of this MR "section".
 
                     File copiedSourcesRoot = new File(new File(defaultOutputDirectory).getParent(),
                             "sources-" + release);
                     File sources = new File(copiedSourcesRoot, "sources");
-                    File descriptor = new File(copiedSourcesRoot, "descriptor");
+                    stagedDescriptor = new File(new File(copiedSourcesRoot, "descriptor"), "module-info.java");
 
                     FileUtils.copyDirectory(mrBase, sources);
-                    FileUtils.moveFile(new File(sources, "module-info.java"), new File(descriptor, "module-info.java"));
+                    FileUtils.deleteQuietly(stagedDescriptor);
+                    FileUtils.moveFile(new File(sources, "module-info.java"), stagedDescriptor);
 
-                    // ok, now we actually don't care whether we compile the module descriptor or the sources first.
-                    // so let's just start with the module descriptor...
+                    currentSourceDirectory = sources.getAbsolutePath();
+                } else {
+                    currentSourceDirectory = mrBase.getAbsolutePath();
+                }
 
-                    currentSourceDirectory = descriptor.getAbsolutePath();
+                setProc(releaseProc);
 
-                    Set<String> configuredIncludes = currentConfiguration.getConfiguration().getIncludes();
-                    Set<String> configuredExcludes = currentConfiguration.getConfiguration().getExcludes();
+                if (pruneClasspath && classpathReferencedPackages != null) {
+                    releaseReferencedPackages = new HashSet<>(classpathReferencedPackages);
+                    releaseReferencedPackages.addAll(ClasspathSnapshot.getReferencedPackagesFromSources(mrBase));
+                }
 
-                    currentConfiguration.getConfiguration().setIncludes(singleton("module-info.java"));
-                    currentConfiguration.getConfiguration().setExcludes(emptySet());
+                // if the processors don't run, the previously generated sources need to be compiled as any other
+                compilingGeneratedSources = shareAnnotationProcessing && "none".equals(releaseProc);
 
-                    compilingModuleDescriptor = true;
+                // the warnings and errors of the compilation against the pruned classpath are expected if it is
+                // retried
+                if (releaseReferencedPackages != null) {
+                    prunedAttemptLog = new DeferredLog(super.getLog());
+                }
 
-                    super.execute();
+                try {
+                    boolean failed;
+                    try {
+                        executeForRelease();
+                        // with failOnError=false, the failure is only visible in the logged errors
+                        failed = prunedAttemptLog != null && prunedAttemptLog.hasErrors();
+                    } catch (CompilationFailureException e) {
+                        if (prunedAttemptLog == null) {
+                            throw e;
+                        }
+                        failed = true;
+                    }
 
-                    // fine, now let's compile the rest...
-                    currentSourceDirectory = sources.getAbsolutePath();
-                    currentConfiguration.getConfiguration().setIncludes(configuredIncludes);
-                    currentConfiguration.getConfiguration().setExcludes(configuredExcludes);
+                    if (failed) {
+                        DeferredLog failedAttemptLog = prunedAttemptLog;
+                        prunedAttemptLog = null;
 
-                    compilingModuleDescriptor = false;
-                } else {
-                    currentSourceDirectory = mrBase.getAbsolutePath();
+                        getLog().warn("Failed to compile the sources of release " + release + " against the pruned"
+                                + " classpath. Compiling them again against the full classpath. The messages of"
+                                + " the failed compilation are logged at the debug level.");
+                        failedAttemptLog.flushAsDebug();
+
+                        // don't let the compiler consider the classes of the failed attempt up-to-date
+                        File releaseOutput = getOutputDirectory();
+                        if (releaseOutput.isDirectory()) {
+                            FileUtils.cleanDirectory(releaseOutput);
+                        }
+
+                        releaseReferencedPackages = null;
+                        executeForRelease();
+                    }
+                } finally {
+                    // unless retried, the messages are real
+                    if (prunedAttemptLog != null) {
+                        prunedAttemptLog.flush();
+                        prunedAttemptLog = null;
+                    }
+                    compilingGeneratedSources = false;
+                    releaseReferencedPackages = null;
                 }
 
-                super.execute();
+                if (shareAnnotationProcessing) {
+                    BuildState.store(processingInputsState, processingInputs);
+                }
+
+                if (stagedDescriptor != null) {
+                    compileModuleDescriptor(stagedDescriptor, buildDirectory);
+                }
+
+                if (skipUnchanged) {
+                    summary.setReleaseInputs(release, releaseInputs);
+                }
+            }
+
+            if (skipUnchanged) {
+                summary.setAbi(computeModuleAbi(mainAbi));
+                summary.store();
             }
         } catch (IOException e) {
             throw new MojoExecutionException("Failed to prepare multi-release sources for staged compilation.", e);
         } finally {
-            getProject().getBuild().setOutputDirectory(defaultOutputDirectory);
+            setProc(defaultProc);
+            closeBackends();
+        }
+    }
+
+    /**
+     * Remembers the directories of the main sources and classes, which are replaced by the release specific ones.
+     */
+    void initializeDefaults() {
+        defaultOutputDirectory = getProject().getBuild().getOutputDirectory();
+        defaultSourceDirectory = getProject().getBuild().getSourceDirectory();
+        defaultGeneratedSourcesDirectory = super.getGeneratedSourcesDirectory();
+    }
+
+    /**
+     * Builds the snapshot of the jars on the classpath and finds the packages that the directories on the classpath
+     * (including the main classes) refer to. These are needed by all the releases.
+     */
+    private void snapshotClasspath(File buildDirectory) throws IOException, MojoExecutionException {
+        List<String> classpath;
+        try {
+            classpath = getProject().getCompileClasspathElements();
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Failed to determine the compile classpath.", e);
+        }
+
+        classpathSnapshot = ClasspathSnapshot.build(classpath, buildDirectory);
+
+        Map<String, String> unreadable = classpathSnapshot.getUnreadableClasses();
+        if (unreadable.isEmpty()) {
+            classpathReferencedPackages = classpathSnapshot.getDirectoryReferencedPackages();
+        } else {
+            // same as with the unreadable classes in the jars - we can't tell what they need, so keep everything
+            unreadable.forEach((path, reason) -> getLog().debug("Failed to read " + path + ": " + reason));
+            getLog().debug("Not pruning the classpath, because some of the classes on it could not be read.");
+            classpathReferencedPackages = null;
+        }
+    }
+
+    private List<String> pruneClasspath(List<String> classpath) {
+        if (releaseReferencedPackages == null || compilingModuleDescriptor || classpath == null) {
+            return classpath;
+        }
+
+        List<String> pruned = classpathSnapshot.prune(classpath, releaseReferencedPackages);
+        getLog().debug("Compiling release " + currentConfiguration.getRelease() + " against " + pruned.size()
+                + " of " + classpath.size() + " classpath elements: " + pruned);
+        return pruned;
+    }
+
+    File getMultiReleaseSourcesDirectory() {
+        return multiReleaseSourcesDirectory;
+    }
+
+    Map<String, CompileConfiguration> getConfigurationsPerRelease() {
+        if (perReleaseConfiguration == null || perReleaseConfiguration.isEmpty()) {
+            return emptyMap();
+        } else {
+            return perReleaseConfiguration.stream()
+                    .collect(Collectors.toMap(CompileConfiguration::getRelease, identity()));
+        }
+    }
+
+    /**
+     * Sets up the mojo for compiling the sources of the release in the provided directory.
+     */
+    void setUpRelease(File mrBase, Map<String, CompileConfiguration> configMap) {
+        String release = mrBase.getName();
+        if (configMap.containsKey(release)) {
+            currentConfiguration = configMap.get(release);
+        } else {
+            currentConfiguration = CompileConfiguration.emptyForRelease(release);
+        }
+
+        currentSourceDirectory = mrBase.getAbsolutePath();
+
+        if (currentConfiguration.getConfiguration().getRelease() == null) {
+            currentConfiguration.getConfiguration().setRelease(release);
+        }
+
+        if (currentConfiguration.getConfiguration().getSource() == null) {
+            currentConfiguration.getConfiguration().setSource(release);
+        }
+
+        if (currentConfiguration.getConfiguration().getTarget() == null) {
+            currentConfiguration.getConfiguration().setTarget(release);
+        }
+
+        if (currentConfiguration.getConfiguration().getCompilerArgs() != null) {
+            this.compilerArgs = currentConfiguration.getConfiguration().getCompilerArgs();
+        }
+
+        if (currentConfiguration.getConfiguration().getRelease() != null) {
+            this.release = currentConfiguration.getConfiguration().getRelease();
+        }
+    }
+
+    /**
+     * Sets the directory containing the sources of the release set up by {@link #setUpRelease(File, Map)}.
+     */
+    void setCurrentSourceDirectory(File sourceDirectory) {
+        currentSourceDirectory = sourceDirectory.getAbsolutePath();
+    }
+
+    /**
+     * Makes the compilations of the releases output the classes and the generated sources to the provided directories
+     * instead of the ones of the regular build. Passing nulls restores the regular directories.
+     */
+    void redirectOutput(File classes, File generatedSources) {
+        redirectedOutputDirectory = classes;
+        redirectedGeneratedSourcesDirectory = generatedSources;
+    }
+
+    /**
+     * Compiles the sources of the release set up by {@link #setUpRelease(File, Map)} using the provided backend,
+     * regardless of the configured one.
+     */
+    void compileRelease(String backendId)
+            throws IOException, MojoExecutionException, CompilationFailureException {
+        backendOverride = backendId;
+        try {
+            executeForRelease();
+        } finally {
+            backendOverride = null;
+        }
+    }
+
+    /**
+     * Creates the request to compile the provided sources of the current release using one of the compiler backends.
+     * The sources are compiled against the compile classpath of the project, which includes the main classes, pruned
+     * to the jars the release can need if the classpath pruning is enabled.
+     */
+    CompilationRequest createCompilationRequest(List<File> sources, File outputDirectory)
+            throws MojoExecutionException {
+        List<String> classpath;
+        try {
+            classpath = pruneClasspath(getProject().getCompileClasspathElements());
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Failed to determine the compile classpath.", e);
+        }
+
+        List<String> options = new ArrayList<>();
+
+        if (getRelease() != null) {
+            options.add("--release");
+            options.add(getRelease());
+        } else {
+            if (getSource() != null) {
+                options.add("-source");
+                options.add(getSource());
+            }
+            if (getTarget() != null) {
+                options.add("-target");
+                options.add(getTarget());
+            }
+        }
+
+        String encoding = getSetting(Configuration::getEncoding, "encoding", String.class);
+        if (encoding != null && !encoding.isEmpty()) {
+            options.add("-encoding");
+            options.add(encoding);
+        }
+
+        // the same options as the plexus javac compiler derives from the configuration
+        if (getSetting(Configuration::getDebug, "debug", Boolean.class)) {
+            String debuglevel = getSetting(Configuration::getDebuglevel, "debuglevel", String.class);
+            options.add(debuglevel == null || debuglevel.isEmpty() ? "-g" : "-g:" + debuglevel);
+        }
+
+        if (getSetting(Configuration::getVerbose, "verbose", Boolean.class)) {
+            options.add("-verbose");
+        }
+
+        if (getSetting(Configuration::getShowDeprecation, "showDeprecation", Boolean.class)) {
+            options.add("-deprecation");
+        }
+
+        if (!getSetting(Configuration::getShowWarnings, "showWarnings", Boolean.class)) {
+            options.add("-nowarn");
+        }
+
+        if (getSetting(Configuration::getFailOnWarning, "failOnWarning", Boolean.class)) {
+            options.add("-Werror");
+        }
+
+        if (getCompilerMojoValue("parameters", Boolean.class)) {
+            options.add("-parameters");
+        }
+
+        String proc = getProc();
+        if (proc != null) {
+            options.add("-proc:" + proc);
+        }
+
+        String[] processors = getSetting(Configuration::getAnnotationProcessors, "annotationProcessors",
+                String[].class);
+        if (processors != null && processors.length > 0) {
+            options.add("-processor");
+            options.add(String.join(",", processors));
+        }
+
+        List<String> processorPath = resolveProcessorPath();
+        if (processorPath != null) {
+            options.add("-processorpath");
+            options.add(String.join(File.pathSeparator, processorPath));
+        }
+
+        if (getCompilerArgument() != null) {
+            options.addAll(Arrays.asList(getCompilerArgument().trim().split("\\s+")));
+        }
+
+        if (getCompilerArguments() != null) {
+            for (Map.Entry<String, String> e : getCompilerArguments().entrySet()) {
+                options.add(e.getKey().startsWith("-") ? e.getKey() : "-" + e.getKey());
+                if (e.getValue() != null && !e.getValue().isEmpty()) {
+                    options.add(e.getValue());
+                }
+            }
+        }
+
+        if (compilerArgs != null) {
+            options.addAll(compilerArgs);
+        }
+
+        return new CompilationRequest(sources, classpath, outputDirectory, options);
+    }
+
+    /**
+     * Runs the compiler for the current release. The project model is shared with the other mojos (possibly running
+     * in parallel), so nothing release specific is ever set on it. This is also why the generated sources directory of
+     * the release is passed directly to javac instead of letting the compiler plugin register it as a compile source
+     * root of the project.
+     */
+    private void executeForRelease() throws IOException, MojoExecutionException, CompilationFailureException {
+        File generatedSources = getReleaseGeneratedSourcesDirectory();
+        List<String> configuredCompilerArgs = compilerArgs;
+
+        if (generatedSources != null) {
+            Files.createDirectories(generatedSources.toPath());
+            compilerArgs = configuredCompilerArgs == null ? new ArrayList<>() : new ArrayList<>(configuredCompilerArgs);
+            compilerArgs.add("-s");
+            compilerArgs.add(generatedSources.getAbsolutePath());
+        }
+
+        try {
+            String backendId = backendOverride != null
+                    ? backendOverride
+                    : getOrCall(Configuration::getCompilerBackend, () -> compilerBackend);
+            if (compilingModuleDescriptor || CompilerBackends.PLEXUS.equals(backendId)) {
+                super.execute();
+            } else {
+                compileWithBackend(getBackend(backendId));
+            }
+        } finally {
+            compilerArgs = configuredCompilerArgs;
+        }
+    }
+
+    private CompilerBackend getBackend(String id) throws MojoExecutionException {
+        CompilerBackend backend = backends.get(id);
+        if (backend == null) {
+            backend = CompilerBackends.create(id);
+            if (backend == null) {
+                throw new MojoExecutionException("Unknown compiler backend: " + id + ".");
+            }
+            backends.put(id, backend);
+        }
+        return backend;
+    }
+
+    void closeBackends() {
+        for (CompilerBackend backend : backends.values()) {
+            try {
+                backend.close();
+            } catch (IOException e) {
+                getLog().debug("Failed to close the " + backend.getId() + " compiler backend.", e);
+            }
+        }
+        backends.clear();
+    }
+
+    /**
+     * Compiles the sources of the current release using the provided backend. Like the maven compiler plugin, all
+     * the sources are compiled if any of them is stale, if the set of the sources changed or if the ABI of the classes
+     * they are compiled against changed. The output directory is cleaned before the compilation, so that no classes of
+     * the removed sources survive.
+     */
+    private void compileWithBackend(CompilerBackend backend)
+            throws IOException, MojoExecutionException, CompilationFailureException {
+        if (!backend.isAvailable()) {
+            getLog().warn("The " + backend.getId() + " compiler backend is not available. Using the compiler"
+                    + " configured in the maven compiler plugin instead.");
+            super.execute();
+            return;
+        }
+
+        File outputDirectory = getOutputDirectory();
+
+        List<File> sources = new ArrayList<>();
+        boolean stale = false;
+        for (String root : getCompileSourceRoots()) {
+            File rootDirectory = new File(root);
+            if (!rootDirectory.isDirectory()) {
+                continue;
+            }
+
+            stale |= !scan(getSourceInclusionScanner(0), rootDirectory, outputDirectory).isEmpty();
+            sources.addAll(scan(getSourceInclusionScanner("java"), rootDirectory, outputDirectory));
+        }
+
+        if (sources.isEmpty()) {
+            getLog().info("No sources to compile");
+            return;
+        }
+
+        Collections.sort(sources);
+        CompilationRequest request = createCompilationRequest(sources, outputDirectory);
+
+        // the benchmark compiles to a scratch directory, which it always clears, so it doesn't need any state
+        File inputsState = redirectedOutputDirectory == null
+                ? BuildState.getStateFile(new File(getProject().getBuild().getDirectory()),
+                currentConfiguration.getRelease(), "backend-inputs")
+                : null;
+        String inputs = computeBackendInputsDigest(backend, request);
+
+        if (!stale) {
+            if (inputsState != null && inputs.equals(BuildState.load(inputsState))) {
+                getLog().info("Nothing to compile - all classes are up to date");
+                return;
+            }
+            getLog().info("Changes detected in the sources or the dependencies - recompiling the release!");
+        }
+
+        if (inputsState != null) {
+            Files.deleteIfExists(inputsState.toPath());
+        }
+
+        if (outputDirectory.isDirectory()) {
+            FileUtils.cleanDirectory(outputDirectory);
+        }
+        Files.createDirectories(outputDirectory.toPath());
+
+        getLog().info("Compiling " + sources.size() + " source files with the " + backend.getId() + " backend to "
+                + outputDirectory);
+
+        CompilationResult result = backend.compile(request);
+
+        if (result.isSuccess() && inputsState != null) {
+            BuildState.store(inputsState, inputs);
+        }
+
+        List<CompilerMessage> errors = new ArrayList<>();
+        for (CompilerMessage message : result.getMessages()) {
+            if (message.isError()) {
+                errors.add(message);
+            } else if (message.getKind() == CompilerMessage.Kind.WARNING
+                    || message.getKind() == CompilerMessage.Kind.MANDATORY_WARNING) {
+                getLog().warn(message.toString());
+            } else {
+                getLog().info(message.toString());
+            }
+        }
+
+        if (!result.isSuccess()) {
+            for (CompilerMessage error : errors) {
+                getLog().error(error.toString());
+            }
+            if (getSetting(Configuration::getFailOnError, "failOnError", Boolean.class)) {
+                throw new CompilationFailureException(errors);
+            }
+        }
+    }
+
+    /**
+     * Computes a digest of what the compilation with a backend depends on apart from the contents of the sources,
+     * which are checked by the stale source scan - the set of the sources, the compiler options, the classpath and
+     * the ABI of the main classes and the dependencies.
+     */
+    private String computeBackendInputsDigest(CompilerBackend backend, CompilationRequest request)
+            throws IOException, MojoExecutionException {
+        MessageDigest digest = BuildState.newDigest();
+
+        digest.update((backend.getId() + "\n" + request.getOutputDirectory().getAbsolutePath() + "\n"
+                + request.getOptions() + "\n" + request.getClasspath() + "\n").getBytes(UTF_8));
+        digest.update(getDependenciesAbi().getBytes(UTF_8));
+
+        for (File source : request.getSources()) {
+            digest.update(("\n" + source.getAbsolutePath()).getBytes(UTF_8));
+        }
+
+        return BuildState.toHex(digest.digest());
+    }
+
+    /**
+     * @return the ABI of the main classes and the dependencies, computed lazily if not needed for anything else
+     */
+    private String getDependenciesAbi() throws IOException, MojoExecutionException {
+        if (dependenciesAbi == null) {
+            dependenciesAbi = computeDependenciesAbi(BuildSummary.abiOf(new File(defaultOutputDirectory).toPath()));
+        }
+        return dependenciesAbi;
+    }
+
+    private static Set<File> scan(SourceInclusionScanner scanner, File sourceDirectory, File outputDirectory)
+            throws MojoExecutionException {
+        scanner.addSourceMapping(new SuffixMapping(".java", ".class"));
+        try {
+            return scanner.getIncludedSources(sourceDirectory, outputDirectory);
+        } catch (InclusionScanException e) {
+            throw new MojoExecutionException("Failed to scan the sources in " + sourceDirectory + ".", e);
+        }
+    }
+
+    /**
+     * Compiles the module descriptor of the current release. The descriptor is compiled after the sources of the
+     * release, so that the packages it refers to can be resolved from the already compiled classes - the classes of
+     * the release and the main classes are patched into the module. This way javac doesn't need to parse any sources
+     * other than the descriptor itself.
+     *
+     * <p>The compilation is skipped altogether if neither the descriptor, the set of classes in the module nor the jars
+     * and directories on the module path changed since the last time the descriptor was compiled.
+     */
+    private void compileModuleDescriptor(File descriptor, File buildDirectory)
+            throws IOException, MojoExecutionException, CompilationFailureException {
+        String release = currentConfiguration.getRelease();
+        File mainClasses = new File(defaultOutputDirectory);
+        File releaseClasses = getOutputDirectory(mainClasses, release);
+
+        File descriptorState = BuildState.getStateFile(buildDirectory, release, "module-descriptor");
+        String descriptorInputs = computeModuleDescriptorDigest(descriptor, releaseClasses, mainClasses);
+        File compiledDescriptor = new File(getOutputDirectoryForModuleDescriptor(mainClasses, release),
+                "module-info.class");
+
+        if (descriptorInputs.equals(BuildState.load(descriptorState)) && compiledDescriptor.exists()) {
+            getLog().info("Neither the module descriptor of release " + release + ", the classes of the module nor"
+                    + " the modules it requires changed. Skipping the compilation of the module descriptor.");
+            return;
+        }
+
+        // make sure the compiler plugin doesn't consider the stale descriptor up-to-date
+        FileUtils.deleteQuietly(compiledDescriptor);
+
+        String moduleName = getModuleName(descriptor);
+        if (moduleName == null) {
+            throw new MojoExecutionException("Could not determine the module name from " + descriptor + ".");
+        }
+
+        Set<String> configuredIncludes = currentConfiguration.getConfiguration().getIncludes();
+        Set<String> configuredExcludes = currentConfiguration.getConfiguration().getExcludes();
+        List<String> configuredCompilerArgs = compilerArgs;
+
+        currentSourceDirectory = descriptor.getParentFile().getAbsolutePath();
+        currentConfiguration.getConfiguration().setIncludes(singleton("module-info.java"));
+        currentConfiguration.getConfiguration().setExcludes(emptySet());
+
+        // the release specific classes go first, so that they override the main classes the same way as in the jar
+        compilerArgs = configuredCompilerArgs == null ? new ArrayList<>() : new ArrayList<>(configuredCompilerArgs);
+        compilerArgs.add("--patch-module");
+        compilerArgs.add(moduleName + "=" + releaseClasses.getAbsolutePath() + File.pathSeparator
+                + mainClasses.getAbsolutePath());
+
+        compilingModuleDescriptor = true;
+
+        // the module descriptor is never interesting for annotation processing
+        String releaseProc = getProc();
+        setProc("none");
+
+        try {
+            executeForRelease();
+        } finally {
+            compilingModuleDescriptor = false;
+            compilerArgs = configuredCompilerArgs;
+            setProc(releaseProc);
+            currentConfiguration.getConfiguration().setIncludes(configuredIncludes);
+            currentConfiguration.getConfiguration().setExcludes(configuredExcludes);
+        }
+
+        BuildState.store(descriptorState, descriptorInputs);
+    }
+
+    /**
+     * Computes a digest of everything the compilation of the module descriptor depends on - the descriptor itself,
+     * the classes of the module (the services it provides and uses are classes, not just packages) and the modules it
+     * requires, i.e. the dependencies on the module path.
+     */
+    private String computeModuleDescriptorDigest(File descriptor, File... classesDirectories)
+            throws IOException, MojoExecutionException {
+        MessageDigest digest = BuildState.newDigest();
+
+        digest.update((getRelease() + " " + compilerArgs + "\n").getBytes(UTF_8));
+        digest.update(Files.readAllBytes(descriptor.toPath()));
+
+        Set<File> ownClasses = new HashSet<>();
+        for (File classes : classesDirectories) {
+            ownClasses.add(classes.getAbsoluteFile());
+            if (!classes.isDirectory()) {
+                continue;
+            }
+
+            Set<String> classNames;
+            try (Stream<Path> files = Files.walk(classes.toPath())) {
+                classNames = files.filter(p -> p.toString().endsWith(".class"))
+                        .map(p -> classes.toPath().relativize(p).toString())
+                        .collect(Collectors.toCollection(TreeSet::new));
+            }
+
+            digest.update(("\n" + classNames).getBytes(UTF_8));
+        }
+
+        List<String> modulePath;
+        try {
+            modulePath = getProject().getCompileClasspathElements();
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Failed to determine the compile classpath.", e);
+        }
+
+        for (String element : modulePath) {
+            File file = new File(element).getAbsoluteFile();
+            if (ownClasses.contains(file)) {
+                continue;
+            }
+
+            digest.update(("\n" + file.getPath() + "\n").getBytes(UTF_8));
+            if (file.isDirectory()) {
+                BuildSummary.updateStamps(digest, file.toPath());
+            } else {
+                digest.update((file.length() + "@" + file.lastModified()).getBytes(UTF_8));
+            }
+        }
+
+        return BuildState.toHex(digest.digest());
+    }
+
+    private static String getModuleName(File descriptor) throws IOException {
+        String code = COMMENT.matcher(new String(Files.readAllBytes(descriptor.toPath()), UTF_8)).replaceAll("");
+        Matcher m = MODULE_NAME.matcher(code);
+        return m.find() ? m.group(1) : null;
+    }
+
+    /**
+     * The digest of the ABI of everything the release specific sources are compiled against - the main classes of this
+     * module and all the dependencies.
+     */
+    private String computeDependenciesAbi(String mainAbi) throws IOException, MojoExecutionException {
+        MessageDigest digest = BuildState.newDigest();
+
+        digest.update(mainAbi.getBytes(UTF_8));
+
+        List<String> classpath;
+        try {
+            classpath = getProject().getCompileClasspathElements();
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Failed to determine the compile classpath.", e);
+        }
+
+        File ownOutput = new File(defaultOutputDirectory).getAbsoluteFile();
+
+        for (String element : classpath) {
+            File file = new File(element).getAbsoluteFile();
+            if (file.equals(ownOutput)) {
+                continue;
+            }
+
+            digest.update(file.getPath().getBytes(UTF_8));
+
+            BuildSummary upstream = BuildSummary.forClasspathElement(file);
+            if (upstream != null) {
+                digest.update(upstream.getAbi().getBytes(UTF_8));
+            } else if (file.isDirectory()) {
+                BuildSummary.updateAbi(digest, file.toPath());
+            } else {
+                // jars from the repository are not supposed to change, so this is good enough
+                digest.update((file.length() + "@" + file.lastModified()).getBytes(UTF_8));
+            }
+        }
+
+        return BuildState.toHex(digest.digest());
+    }
+
+    private String computeReleaseInputsDigest(Path sourceDirectory, String dependenciesAbi) throws IOException {
+        MessageDigest digest = BuildState.newDigest();
+
+        digest.update(dependenciesAbi.getBytes(UTF_8));
+        digest.update((getRelease() + " " + getSource() + " " + getTarget() + " " + compilerArgs + " "
+                + getCompilerArgument() + " " + getCompilerArguments()).getBytes(UTF_8));
+
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(sourceDirectory)) {
+            sources = files.filter(Files::isRegularFile).sorted().collect(toList());
+        }
+
+        for (Path source : sources) {
+            digest.update(sourceDirectory.relativize(source).toString().getBytes(UTF_8));
+            digest.update(Files.readAllBytes(source));
+        }
+
+        return BuildState.toHex(digest.digest());
+    }
+
+    /**
+     * The ABI of the module is the ABI of the main classes together with the ABI of all the releases.
+     */
+    private String computeModuleAbi(String mainAbi) throws IOException {
+        MessageDigest digest = BuildState.newDigest();
+
+        digest.update(mainAbi.getBytes(UTF_8));
+
+        File output = new File(defaultOutputDirectory);
+
+        //noinspection ConstantConditions
+        for (File mrBase : multiReleaseSourcesDirectory.listFiles(File::isDirectory)) {
+            String release = mrBase.getName();
+            digest.update(release.getBytes(UTF_8));
+            BuildSummary.updateAbi(digest, getOutputDirectory(output, release).toPath());
+            BuildSummary.updateAbi(digest, getOutputDirectoryForModuleDescriptor(output, release).toPath());
+        }
+
+        return BuildState.toHex(digest.digest());
+    }
+
+    /**
+     * Computes a digest of everything the output of the annotation processors for a release can depend on - all
+     * the sources of the release (the processors look at the types the annotated sources refer to, too), the ABI of
+     * the main classes and the dependencies (which includes the processors on the classpath) and the configuration of
+     * the processors.
+     */
+    private String computeProcessingInputsDigest(Path sourceDirectory, String dependenciesAbi, String proc)
+            throws IOException, MojoExecutionException {
+        MessageDigest digest = BuildState.newDigest();
+
+        digest.update(computeReleaseInputsDigest(sourceDirectory, dependenciesAbi).getBytes(UTF_8));
+        digest.update((proc + " " + getReleaseGeneratedSourcesDirectory()).getBytes(UTF_8));
+
+        // the same lookup as in createCompilationRequest(), so that the per-release overrides are taken into account
+        String[] processors = getSetting(Configuration::getAnnotationProcessors, "annotationProcessors",
+                String[].class);
+        digest.update(("\n" + (processors == null ? null : Arrays.asList(processors))).getBytes(UTF_8));
+
+        List<?> processorPath = getSetting(Configuration::getAnnotationProcessorPaths, "annotationProcessorPaths",
+                List.class);
+        if (processorPath != null) {
+            for (Object o : processorPath) {
+                DependencyCoordinate c = (DependencyCoordinate) o;
+                digest.update(("\n" + c.getGroupId() + ":" + c.getArtifactId() + ":" + c.getVersion() + ":"
+                        + c.getClassifier() + ":" + c.getType()).getBytes(UTF_8));
+            }
+        }
+
+        return BuildState.toHex(digest.digest());
+    }
+
+    /**
+     * @return the value of the compiler plugin configuration property, unless it is overridden in the configuration of
+     * the current release
+     */
+    private <T> T getSetting(Function<Configuration, T> configOption, String name, Class<T> type)
+            throws MojoExecutionException {
+        T configured = getOrCall(configOption, () -> null);
+        return configured == null ? getCompilerMojoValue(name, type) : configured;
+    }
+
+    /**
+     * Resolves the annotation processor path of the current release the same way the compiler plugin does.
+     *
+     * @return the processor path or null if none is configured and the processors are to be looked up on the classpath
+     */
+    private List<String> resolveProcessorPath() throws MojoExecutionException {
+        List<DependencyCoordinate> configured = getOrCall(Configuration::getAnnotationProcessorPaths, () -> null);
+        Field pathField = getCompilerMojoField("annotationProcessorPaths");
+
+        try {
+            Object defaultPath = pathField.get(this);
+            if (configured != null) {
+                pathField.set(this, configured);
+            }
+
+            try {
+                Method resolve = AbstractCompilerMojo.class.getDeclaredMethod("resolveProcessorPathEntries");
+                resolve.setAccessible(true);
+                @SuppressWarnings("unchecked")
+                List<String> ret = (List<String>) resolve.invoke(this);
+                return ret;
+            } finally {
+                pathField.set(this, defaultPath);
+            }
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException("Failed to resolve the annotation processor path.", e.getCause());
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new MojoExecutionException("Could not resolve the annotation processor path of the compiler.", e);
+        }
+    }
+
+    private String getProc() throws MojoExecutionException {
+        return getCompilerMojoValue("proc", String.class);
+    }
+
+    private void setProc(String proc) throws MojoExecutionException {
+        try {
+            getCompilerMojoField("proc").set(this, proc);
+        } catch (IllegalAccessException e) {
+            throw new MojoExecutionException("Could not modify the annotation processing configuration.", e);
+        }
+    }
+
+    /**
+     * Reads the value of a configuration property of the compiler plugin which is not accessible to the subclasses.
+     */
+    private <T> T getCompilerMojoValue(String name, Class<T> type) throws MojoExecutionException {
+        try {
+            return type.cast(getCompilerMojoField(name).get(this));
+        } catch (IllegalAccessException e) {
+            throw new MojoExecutionException("Could not read the " + name + " configuration of the compiler.", e);
+        }
+    }
+
+    private static Field getCompilerMojoField(String name) throws MojoExecutionException {
+        try {
+            Field field = AbstractCompilerMojo.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new MojoExecutionException("Could not access the " + name + " configuration of the compiler.", e);
         }
     }
 
     @Override protected List<String> getCompileSourceRoots() {
         if (MultiReleaseJarSupport.isAvailable()) {
-            return super.getCompileSourceRoots().stream()
+            List<String> roots = super.getCompileSourceRoots().stream()
+                    .filter(e -> !isSharedGeneratedSourcesDirectory(e))
                     .flatMap(e -> {
                         if (currentConfiguration != null && e.equals(defaultSourceDirectory)) {
-                            if (compilingModuleDescriptor) {
-                                // when compiling the module descriptor, we need to see all the classes that can
-                                // participate in the module - these are all in the default source...
-                                return Stream.of(currentSourceDirectory, defaultSourceDirectory);
-                            } else {
-                                return Stream.of(currentSourceDirectory);
-                            }
+                            return Stream.of(currentSourceDirectory);
+                        } else if (compilingModuleDescriptor) {
+                            // the module descriptor sees the rest of the module through the compiled classes
+                            return Stream.empty();
                         } else {
                             return Stream.of(e);
                         }
                     })
                     .collect(toList());
+
+            if (compilingGeneratedSources) {
+                File generatedSources = getReleaseGeneratedSourcesDirectory();
+                if (generatedSources != null && generatedSources.isDirectory()) {
+                    roots.add(generatedSources.getAbsolutePath());
+                }
+            }
+
+            return roots;
         } else {
             return super.getCompileSourceRoots();
         }
     }
 
+    /**
+     * When the annotation processing is shared, the sources generated for the main sources are already compiled and
+     * available on the classpath and therefore must not be compiled again as part of the release specific sources.
+     */
+    private boolean isSharedGeneratedSourcesDirectory(String sourceRoot) {
+        return shareAnnotationProcessing && currentConfiguration != null && defaultGeneratedSourcesDirectory != null
+                && new File(sourceRoot).getAbsoluteFile().equals(defaultGeneratedSourcesDirectory.getAbsoluteFile());
+    }
+
+    @Override public Log getLog() {
+        return prunedAttemptLog == null ? super.getLog() : prunedAttemptLog;
+    }
+
     @Override protected List<String> getClasspathElements() {
-        if (MultiReleaseJarSupport.isAvailable()) {
-            String currentOutput = getProject().getBuild().getOutputDirectory();
-            return super.getClasspathElements().stream()
-                    .map(e -> defaultOutputDirectory != null && e.equals(currentOutput) ? defaultOutputDirectory : e)
-                    .collect(toList());
-        } else {
-            return super.getClasspathElements();
-        }
+        return pruneClasspath(super.getClasspathElements());
     }
 
     @Override protected File getOutputDirectory() {
@@ -224,6 +1114,10 @@ public class CompileMojo extends CompilerMojo {
             return super.getOutputDirectory();
         }
 
+        if (redirectedOutputDirectory != null && !compilingModuleDescriptor) {
+            return redirectedOutputDirectory;
+        }
+
         return compilingModuleDescriptor
                 ? getOutputDirectoryForModuleDescriptor(super.getOutputDirectory(), currentConfiguration.getRelease())
                 : getOutputDirectory(super.getOutputDirectory(), currentConfiguration.getRelease());
@@ -324,7 +1218,37 @@ public class CompileMojo extends CompilerMojo {
     }
 
     @Override protected File getGeneratedSourcesDirectory() {
-        return getOrCall(Configuration::getGeneratedSourcesDirectory, () -> super.getGeneratedSourcesDirectory());
+        if (MultiReleaseJarSupport.isAvailable() && currentConfiguration != null) {
+            // the compiler plugin would register the directory as a compile source root of the project, which is
+            // shared with everybody else. See executeForRelease() for how this is passed to the compiler instead.
+            return null;
+        }
+
+        return super.getGeneratedSourcesDirectory();
+    }
+
+    /**
+     * @return the directory the annotation processors generate the sources of the current release to
+     */
+    private File getReleaseGeneratedSourcesDirectory() {
+        if (compilingModuleDescriptor && super.getGeneratedSourcesDirectory() != null) {
+            // nothing is generated for the module descriptor, but the compiler plugin would compile everything in the
+            // generated sources directory along with it.
+            return getOutputDirectoryForModuleDescriptor(super.getGeneratedSourcesDirectory(),
+                    currentConfiguration.getRelease());
+        }
+
+        if (redirectedGeneratedSourcesDirectory != null) {
+            return redirectedGeneratedSourcesDirectory;
+        }
+
+        return getOrCall(Configuration::getGeneratedSourcesDirectory, () -> {
+            File generatedSources = super.getGeneratedSourcesDirectory();
+            if (shareAnnotationProcessing && currentConfiguration != null && generatedSources != null) {
+                return getOutputDirectory(generatedSources, currentConfiguration.getRelease());
+            }
+            return generatedSources;
+        });
     }
 
     @SuppressWarnings("unchecked")
@@ -0,0 +1,36 @@
+package pw.krejci.mrc;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A compiler that can be used to compile the release specific sources.
+ *
+ * <p>The built-in backends are {@code javac} (the in-process system java compiler), {@code ecj} (the Eclipse compiler,
+ * if it is on the classpath of the plugin) and {@code forked} (javac run in a separate process, the number of
+ * concurrently running processes is limited by a pool shared by all the builds in the JVM). Additional backends can be provided using {@link java.util.ServiceLoader}
+ * from the dependencies of the plugin.
+ *
+ * <p>The backends are instantiated for each execution of the compile goal and closed at its end. They are never used
+ * concurrently.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+public interface CompilerBackend extends Closeable {
+
+    /**
+     * @return the id by which the backend is selected in the configuration of the plugin
+     */
+    String getId();
+
+    /**
+     * @return true if the backend can be used in the current environment
+     */
+    boolean isAvailable();
+
+    CompilationResult compile(CompilationRequest request) throws IOException;
+
+    @Override default void close() throws IOException {
+    }
+}
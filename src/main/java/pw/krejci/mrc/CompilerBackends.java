@@ -0,0 +1,50 @@
+package pw.krejci.mrc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Looks up the compiler backends. The built-in backends take precedence over the ones provided through the
+ * {@link ServiceLoader}. Each call creates new instances.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+final class CompilerBackends {
+    /**
+     * The id of the default "backend" - the compiler configured in the maven compiler plugin.
+     */
+    static final String PLEXUS = "plexus";
+
+    private CompilerBackends() {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return the backend with the provided id or null if there is no such backend
+     */
+    static CompilerBackend create(String id) {
+        for (CompilerBackend backend : createAll()) {
+            if (backend.getId().equals(id)) {
+                return backend;
+            }
+        }
+        return null;
+    }
+
+    static List<CompilerBackend> createAll() {
+        List<CompilerBackend> ret = new ArrayList<>(Arrays.asList(JavaxToolsCompilerBackend.javac(),
+                JavaxToolsCompilerBackend.ecj(), new ForkedJavacCompilerBackend()));
+
+        for (CompilerBackend backend : ServiceLoader.load(CompilerBackend.class,
+                CompilerBackends.class.getClassLoader())) {
+            if (ret.stream().noneMatch(b -> b.getId().equals(backend.getId()))) {
+                ret.add(backend);
+            }
+        }
+
+        return ret;
+    }
+}
@@ -0,0 +1,250 @@
+package pw.krejci.mrc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.compiler.CompilationFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+/**
+ * Compiles the release specific sources of the project with each of the available compiler backends and reports how
+ * long each of them took for each release. The compilation is repeated a configurable number of times after a few
+ * warmup rounds and the median is reported. The {@code plexus} backend, i.e. the compiler configured in the maven
+ * compiler plugin, is benchmarked, too. The classes are compiled to a separate directory, so the outputs of the regular
+ * build are not touched.
+ *
+ * <p>This needs to run after the main classes have been compiled, e.g.
+ * {@code mvn compile multi-release-jar:compiler-benchmark}.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+@Mojo(name = "compiler-benchmark", threadSafe = true, requiresDependencyResolution = ResolutionScope.COMPILE)
+public class CompilerBenchmarkMojo extends CompileMojo {
+
+    /**
+     * The ids of the backends to compare. By default, all the available backends are compared.
+     */
+    @Parameter(property = "multi-release-jar.benchmark.backends")
+    private List<String> benchmarkedBackends;
+
+    /**
+     * The number of measured compilations of each release with each backend.
+     */
+    @Parameter(property = "multi-release-jar.benchmark.iterations", defaultValue = "5")
+    private int iterations;
+
+    /**
+     * The number of compilations done before the measurements start, so that the in-process compilers are measured
+     * with the JIT compiled code and filled caches, as they would be in a multi-module build.
+     */
+    @Parameter(property = "multi-release-jar.benchmark.warmups", defaultValue = "2")
+    private int warmups;
+
+    @Parameter(defaultValue = "${project.build.directory}/compiler-benchmark", required = true)
+    private File benchmarkDirectory;
+
+    @Override public void execute() throws MojoExecutionException {
+        File mrSources = getMultiReleaseSourcesDirectory();
+        if (!MultiReleaseJarSupport.isAvailable() || !mrSources.isDirectory()) {
+            getLog().info("No release specific sources to benchmark the compilers on.");
+            return;
+        }
+
+        if (!new File(getProject().getBuild().getOutputDirectory()).isDirectory()) {
+            throw new MojoExecutionException("The main classes have not been compiled yet. The compiler-benchmark goal"
+                    + " needs to run after the compile goal.");
+        }
+
+        List<String> backends = getBenchmarkedBackends();
+        if (backends.isEmpty()) {
+            getLog().warn("None of the compiler backends is available.");
+            return;
+        }
+
+        Map<String, CompileConfiguration> configMap = getConfigurationsPerRelease();
+
+        //noinspection ConstantConditions
+        File[] releases = mrSources.listFiles(File::isDirectory);
+        Arrays.sort(releases, Comparator.comparing(File::getName));
+
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%-10s %-10s %10s %10s %10s", "release", "backend", "median ms", "min ms",
+                "max ms"));
+
+        initializeDefaults();
+
+        try {
+            for (File mrBase : releases) {
+                String release = mrBase.getName();
+                File releaseDirectory = new File(benchmarkDirectory, release);
+
+                setUpRelease(mrBase, configMap);
+                if (!stageSources(mrBase, new File(releaseDirectory, "sources"))) {
+                    continue;
+                }
+
+                String winner = null;
+                long winnerMedian = Long.MAX_VALUE;
+
+                for (String backend : backends) {
+                    File output = new File(releaseDirectory, backend);
+
+                    long[] times = measure(backend, new File(output, "classes"),
+                            new File(output, "generated-sources"));
+                    if (times == null) {
+                        report.add(String.format("%-10s %-10s %10s", release, backend, "failed"));
+                        continue;
+                    }
+
+                    Arrays.sort(times);
+                    long median = times[times.length / 2];
+                    report.add(String.format("%-10s %-10s %10d %10d %10d", release, backend, median,
+                            times[0], times[times.length - 1]));
+
+                    if (median < winnerMedian) {
+                        winnerMedian = median;
+                        winner = backend;
+                    }
+                }
+
+                if (winner != null) {
+                    report.add(String.format("%-10s %-10s", release, "winner: " + winner));
+                }
+            }
+
+            File reportFile = new File(benchmarkDirectory, "report.txt");
+            Files.createDirectories(benchmarkDirectory.toPath());
+            Files.write(reportFile.toPath(), report, UTF_8);
+
+            getLog().info("Compiler benchmark results (also written to " + reportFile + "):");
+            report.forEach(getLog()::info);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to benchmark the compilers.", e);
+        } finally {
+            redirectOutput(null, null);
+            closeBackends();
+        }
+    }
+
+    /**
+     * Copies the sources of the release without the module descriptor to the staging directory and makes them
+     * the sources of the current release. The module descriptor would make javac compile the module, which the regular
+     * build never does.
+     *
+     * @return false if there are no sources to compile
+     */
+    private boolean stageSources(File mrBase, File stagingDirectory) throws MojoExecutionException {
+        try {
+            FileUtils.deleteDirectory(stagingDirectory);
+            FileUtils.copyDirectory(mrBase, stagingDirectory,
+                    f -> f.isDirectory() || !f.getName().equals("module-info.java"));
+
+            try (Stream<Path> files = Files.walk(stagingDirectory.toPath())) {
+                if (files.noneMatch(p -> p.toString().endsWith(".java"))) {
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to stage the sources of " + mrBase + ".", e);
+        }
+
+        setCurrentSourceDirectory(stagingDirectory);
+        return true;
+    }
+
+    /**
+     * Compiles the current release with the backend, outputting to the provided scratch directories, which are
+     * cleared before each compilation so that every compilation is a full one.
+     *
+     * @return the times of the measured compilations in milliseconds or null if the compilation failed
+     */
+    private long[] measure(String backend, File classes, File generatedSources)
+            throws IOException, MojoExecutionException {
+        long[] times = new long[Math.max(1, iterations)];
+
+        redirectOutput(classes, generatedSources);
+
+        for (int i = 0; i < warmups + times.length; ++i) {
+            FileUtils.deleteDirectory(classes);
+            FileUtils.deleteDirectory(generatedSources);
+            Files.createDirectories(classes.toPath());
+
+            long start = System.nanoTime();
+            try {
+                compileRelease(backend);
+            } catch (CompilationFailureException e) {
+                getLog().warn("The " + backend + " backend failed to compile the sources.");
+                return null;
+            }
+            long time = (System.nanoTime() - start) / 1_000_000;
+
+            if (i >= warmups) {
+                times[i - warmups] = time;
+            }
+        }
+
+        return times;
+    }
+
+    /**
+     * @return the ids of the backends to benchmark, including {@code plexus}, i.e. the compiler configured in the maven
+     * compiler plugin
+     */
+    private List<String> getBenchmarkedBackends() throws MojoExecutionException {
+        List<String> ret = new ArrayList<>();
+
+        if (benchmarkedBackends == null || benchmarkedBackends.isEmpty()) {
+            ret.add(CompilerBackends.PLEXUS);
+            for (CompilerBackend backend : CompilerBackends.createAll()) {
+                addIfAvailable(ret, backend, backend.getId(), false);
+            }
+        } else {
+            for (String id : benchmarkedBackends) {
+                if (CompilerBackends.PLEXUS.equals(id)) {
+                    ret.add(id);
+                    continue;
+                }
+
+                CompilerBackend backend = CompilerBackends.create(id);
+                if (backend == null) {
+                    throw new MojoExecutionException("Unknown compiler backend: " + id + ".");
+                }
+                addIfAvailable(ret, backend, id, true);
+            }
+        }
+
+        return ret;
+    }
+
+    private void addIfAvailable(List<String> ids, CompilerBackend backend, String id, boolean requested) {
+        try {
+            if (backend.isAvailable()) {
+                ids.add(id);
+            } else if (requested) {
+                getLog().warn("The " + id + " compiler backend is not available.");
+            } else {
+                getLog().info("The " + id + " compiler backend is not available.");
+            }
+        } finally {
+            try {
+                backend.close();
+            } catch (IOException e) {
+                getLog().debug("Failed to close the " + id + " compiler backend.", e);
+            }
+        }
+    }
+}
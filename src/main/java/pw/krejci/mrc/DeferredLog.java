@@ -0,0 +1,127 @@
+package pw.krejci.mrc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A log that holds the warnings and the errors back instead of logging them, so that the caller can decide whether
+ * they are worth reporting at all. Everything else is passed to the delegate right away.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+final class DeferredLog implements Log {
+    private final Log delegate;
+    private final List<Consumer<Log>> deferred = new ArrayList<>();
+    private final List<Consumer<Log>> asDebug = new ArrayList<>();
+    private boolean errors;
+
+    DeferredLog(Log delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return true if any error has been logged
+     */
+    boolean hasErrors() {
+        return errors;
+    }
+
+    /**
+     * Logs the deferred messages at their original levels.
+     */
+    void flush() {
+        deferred.forEach(e -> e.accept(delegate));
+        clear();
+    }
+
+    /**
+     * Logs the deferred messages at the debug level.
+     */
+    void flushAsDebug() {
+        asDebug.forEach(e -> e.accept(delegate));
+        clear();
+    }
+
+    private void clear() {
+        deferred.clear();
+        asDebug.clear();
+        errors = false;
+    }
+
+    @Override public boolean isDebugEnabled() {
+        return delegate.isDebugEnabled();
+    }
+
+    @Override public void debug(CharSequence content) {
+        delegate.debug(content);
+    }
+
+    @Override public void debug(CharSequence content, Throwable error) {
+        delegate.debug(content, error);
+    }
+
+    @Override public void debug(Throwable error) {
+        delegate.debug(error);
+    }
+
+    @Override public boolean isInfoEnabled() {
+        return delegate.isInfoEnabled();
+    }
+
+    @Override public void info(CharSequence content) {
+        delegate.info(content);
+    }
+
+    @Override public void info(CharSequence content, Throwable error) {
+        delegate.info(content, error);
+    }
+
+    @Override public void info(Throwable error) {
+        delegate.info(error);
+    }
+
+    @Override public boolean isWarnEnabled() {
+        return delegate.isWarnEnabled();
+    }
+
+    @Override public void warn(CharSequence content) {
+        deferred.add(l -> l.warn(content));
+        asDebug.add(l -> l.debug(content));
+    }
+
+    @Override public void warn(CharSequence content, Throwable error) {
+        deferred.add(l -> l.warn(content, error));
+        asDebug.add(l -> l.debug(content, error));
+    }
+
+    @Override public void warn(Throwable error) {
+        deferred.add(l -> l.warn(error));
+        asDebug.add(l -> l.debug(error));
+    }
+
+    @Override public boolean isErrorEnabled() {
+        return delegate.isErrorEnabled();
+    }
+
+    @Override public void error(CharSequence content) {
+        errors = true;
+        deferred.add(l -> l.error(content));
+        asDebug.add(l -> l.debug(content));
+    }
+
+    @Override public void error(CharSequence content, Throwable error) {
+        errors = true;
+        deferred.add(l -> l.error(content, error));
+        asDebug.add(l -> l.debug(content, error));
+    }
+
+    @Override public void error(Throwable error) {
+        errors = true;
+        deferred.add(l -> l.error(error));
+        asDebug.add(l -> l.debug(error));
+    }
+}
@@ -0,0 +1,142 @@
+package pw.krejci.mrc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.compiler.CompilerMessage;
+
+/**
+ * A backend running javac of the JDK the build runs with in a separate process. The arguments are passed in an argument
+ * file so that the length of the classpath is not limited by the command line of the OS.
+ *
+ * <p>All the instances share a pool of permits, one per available processor, so that the parallel builds of many
+ * modules don't start more javac processes than the machine can handle.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+final class ForkedJavacCompilerBackend implements CompilerBackend {
+    private static final Pattern MESSAGE = Pattern.compile("^(.+?\\.java):(\\d+): (error|warning): (.*)$");
+
+    private static final Semaphore POOL = new Semaphore(Runtime.getRuntime().availableProcessors(), true);
+
+    @Override public String getId() {
+        return "forked";
+    }
+
+    @Override public boolean isAvailable() {
+        return getExecutable() != null;
+    }
+
+    @Override public CompilationResult compile(CompilationRequest request) throws IOException {
+        File executable = getExecutable();
+        if (executable == null) {
+            throw new IllegalStateException("Could not find the javac executable.");
+        }
+
+        Path argFile = Files.createTempFile("javac", ".args");
+        try {
+            List<String> lines = new ArrayList<>();
+            for (String option : request.getAllOptions()) {
+                lines.add(quote(option));
+            }
+            for (File source : request.getSources()) {
+                lines.add(quote(source.getAbsolutePath()));
+            }
+            Files.write(argFile, lines, UTF_8);
+
+            ProcessBuilder pb = new ProcessBuilder(executable.getAbsolutePath(), "@" + argFile.toAbsolutePath())
+                    .redirectErrorStream(true);
+
+            try {
+                POOL.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a free javac process.", e);
+            }
+
+            String output;
+            int exitCode;
+            try {
+                Process process = pb.start();
+                output = readFully(process.getInputStream());
+                exitCode = process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for javac to finish.", e);
+            } finally {
+                POOL.release();
+            }
+
+            return new CompilationResult(exitCode == 0, parseMessages(output, exitCode == 0));
+        } finally {
+            Files.deleteIfExists(argFile);
+        }
+    }
+
+    private static List<CompilerMessage> parseMessages(String output, boolean success) {
+        List<CompilerMessage> messages = new ArrayList<>();
+        boolean hasErrors = false;
+
+        for (String line : output.split("\\r?\\n")) {
+            Matcher m = MESSAGE.matcher(line);
+            if (m.matches()) {
+                boolean error = "error".equals(m.group(3));
+                hasErrors |= error;
+                int lineNumber = Integer.parseInt(m.group(2));
+                messages.add(new CompilerMessage(m.group(1),
+                        error ? CompilerMessage.Kind.ERROR : CompilerMessage.Kind.WARNING, lineNumber, 0, lineNumber,
+                        0, m.group(4)));
+            }
+        }
+
+        if (!success && !hasErrors) {
+            // javac failed in some other way than reporting compilation errors, e.g. because of an invalid option
+            messages.add(new CompilerMessage(output.trim(), CompilerMessage.Kind.ERROR));
+        }
+
+        return messages;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int cnt;
+        while ((cnt = in.read(buffer)) != -1) {
+            out.write(buffer, 0, cnt);
+        }
+        return new String(out.toByteArray());
+    }
+
+    private static String quote(String arg) {
+        return "\"" + arg.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static File getExecutable() {
+        String name = System.getProperty("os.name").toLowerCase().startsWith("windows") ? "javac.exe" : "javac";
+        File javaHome = new File(System.getProperty("java.home"));
+
+        // java.home points to the JRE inside the JDK on Java 8
+        for (File home : new File[]{javaHome, javaHome.getParentFile()}) {
+            if (home != null) {
+                File javac = new File(new File(home, "bin"), name);
+                if (javac.isFile()) {
+                    return javac;
+                }
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,201 @@
+package pw.krejci.mrc;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.codehaus.plexus.compiler.CompilerMessage;
+
+/**
+ * A backend running a {@link JavaCompiler} in-process, which saves starting the compiler in a separate process.
+ *
+ * <p>A file manager remembers the locations and the other options it was configured with by the previous compilations,
+ * so it is only reused for the compilations with exactly the same options (apart from the output directories, which
+ * are reset before each compilation), e.g. the repeated compilations of the compiler benchmark. The releases of
+ * a module differ at least in the target release and therefore each of them gets a file manager of its own.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+final class JavaxToolsCompilerBackend implements CompilerBackend {
+    private static final Set<String> OUTPUT_OPTIONS = new HashSet<>(Arrays.asList("-d", "-s", "-h"));
+
+    private final String id;
+    private final Supplier<JavaCompiler> compilerLookup;
+
+    private JavaCompiler compiler;
+    private boolean lookedUp;
+    private final Map<List<String>, StandardJavaFileManager> fileManagers = new HashMap<>();
+
+    private JavaxToolsCompilerBackend(String id, Supplier<JavaCompiler> compilerLookup) {
+        this.id = id;
+        this.compilerLookup = compilerLookup;
+    }
+
+    static JavaxToolsCompilerBackend javac() {
+        return new JavaxToolsCompilerBackend("javac", ToolProvider::getSystemJavaCompiler);
+    }
+
+    /**
+     * The Eclipse compiler registers itself as a {@link JavaCompiler} service, so it is available if it is added as
+     * a dependency of the plugin.
+     */
+    static JavaxToolsCompilerBackend ecj() {
+        return new JavaxToolsCompilerBackend("ecj", () -> {
+            for (JavaCompiler c : ServiceLoader.load(JavaCompiler.class, JavaxToolsCompilerBackend.class
+                    .getClassLoader())) {
+                if (c.getClass().getName().startsWith("org.eclipse.jdt.")) {
+                    return c;
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override public String getId() {
+        return id;
+    }
+
+    @Override public boolean isAvailable() {
+        return getCompiler() != null;
+    }
+
+    @Override public CompilationResult compile(CompilationRequest request) throws IOException {
+        JavaCompiler compiler = getCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("The " + id + " compiler is not available.");
+        }
+
+        List<String> options = request.getAllOptions();
+        StandardJavaFileManager fileManager = fileManagers.computeIfAbsent(getFileManagerKey(options),
+                k -> compiler.getStandardFileManager(null, null, null));
+
+        // the output locations are not part of the key, so they must not leak from the previous compilation
+        resetLocation(fileManager, StandardLocation.CLASS_OUTPUT);
+        resetLocation(fileManager, StandardLocation.SOURCE_OUTPUT);
+        resetLocation(fileManager, StandardLocation.NATIVE_HEADER_OUTPUT);
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StringWriter output = new StringWriter();
+
+        Iterable<? extends JavaFileObject> sources = fileManager.getJavaFileObjectsFromFiles(request.getSources());
+
+        boolean success;
+        try {
+            success = compiler.getTask(output, fileManager, diagnostics, options, null, sources)
+                    .call();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // invalid options and such
+            List<CompilerMessage> messages = new ArrayList<>();
+            messages.add(new CompilerMessage(String.valueOf(e.getMessage()), CompilerMessage.Kind.ERROR));
+            return new CompilationResult(false, messages);
+        } finally {
+            // the file manager stays open for the next compilation, but the written class files must be flushed
+            fileManager.flush();
+        }
+
+        List<CompilerMessage> messages = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+            messages.add(toMessage(d));
+        }
+
+        String rest = output.toString().trim();
+        if (!rest.isEmpty()) {
+            messages.add(new CompilerMessage(rest, success ? CompilerMessage.Kind.OTHER : CompilerMessage.Kind.ERROR));
+        }
+
+        return new CompilationResult(success, messages);
+    }
+
+    @Override public void close() throws IOException {
+        IOException failure = null;
+        for (StandardJavaFileManager fileManager : fileManagers.values()) {
+            try {
+                fileManager.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        fileManagers.clear();
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void resetLocation(StandardJavaFileManager fileManager, StandardLocation location)
+            throws IOException {
+        try {
+            fileManager.setLocation(location, null);
+        } catch (IllegalArgumentException e) {
+            // the file manager doesn't support the location, so it can't remember it either
+        }
+    }
+
+    /**
+     * @return the options without the output directories
+     */
+    private static List<String> getFileManagerKey(List<String> options) {
+        List<String> ret = new ArrayList<>(options.size());
+        for (int i = 0; i < options.size(); ++i) {
+            String option = options.get(i);
+            if (OUTPUT_OPTIONS.contains(option)) {
+                // skip the argument, too
+                ++i;
+            } else {
+                ret.add(option);
+            }
+        }
+        return ret;
+    }
+
+    private JavaCompiler getCompiler() {
+        if (!lookedUp) {
+            compiler = compilerLookup.get();
+            lookedUp = true;
+        }
+        return compiler;
+    }
+
+    private static CompilerMessage toMessage(Diagnostic<? extends JavaFileObject> d) {
+        CompilerMessage.Kind kind;
+        switch (d.getKind()) {
+        case ERROR:
+            kind = CompilerMessage.Kind.ERROR;
+            break;
+        case WARNING:
+            kind = CompilerMessage.Kind.WARNING;
+            break;
+        case MANDATORY_WARNING:
+            kind = CompilerMessage.Kind.MANDATORY_WARNING;
+            break;
+        case NOTE:
+            kind = CompilerMessage.Kind.NOTE;
+            break;
+        default:
+            kind = CompilerMessage.Kind.OTHER;
+        }
+
+        String file = d.getSource() == null ? null : d.getSource().getName();
+        int line = (int) d.getLineNumber();
+        int column = (int) d.getColumnNumber();
+
+        return new CompilerMessage(file, kind, line, column, line, column, d.getMessage(null));
+    }
+}
@@ -1,19 +1,25 @@
 package pw.krejci.mrc;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.plugins.jar.AbstractJarMojo;
 import org.apache.maven.plugins.jar.JarMojo;
-import org.apache.maven.shared.utils.io.FileUtils;
+import org.apache.maven.project.MavenProjectHelper;
 
 /**
  * @author Lukas Krejci
@@ -35,6 +41,24 @@ public class MrJarMojo extends JarMojo {
     @Parameter
     private String mainModuleInfo;
 
+    /**
+     * If true, the jar is not repackaged if none of the compiled classes and resources changed since the last
+     * successful build.
+     */
+    @Parameter(property = "multi-release-jar.skipUnchanged", defaultValue = "false")
+    private boolean skipUnchanged;
+
+    /**
+     * The compiled files of at least this size are copied using {@link java.nio.channels.FileChannel#transferTo} when
+     * assembling the contents of the jar, which lets the operating system copy them without reading them into the
+     * heap. The smaller
+     * files are read using pooled direct buffers.
+     */
+    @Parameter(property = "multi-release-jar.transferThreshold", defaultValue = "1048576")
+    private long transferThreshold;
+
+    @Component
+    private MavenProjectHelper mavenProjectHelper;
 
     @Override protected File getClassesDirectory() {
         if (MultiReleaseJarSupport.isAvailable()) {
@@ -53,13 +77,34 @@ public class MrJarMojo extends JarMojo {
             return;
         }
 
+        File buildDirectory = new File(getProject().getBuild().getDirectory());
+        File jar = getJarFile(buildDirectory, getProject().getBuild().getFinalName(), getClassifier());
+        BuildSummary summary = null;
+        String jarInputs = null;
+
+        if (skipUnchanged) {
+            summary = BuildSummary.load(buildDirectory);
+            jarInputs = computeJarInputsDigest();
+            if (summary.isJarUpToDate(jar, jarInputs)) {
+                getLog().info("The compiled classes did not change. Skipping the repackaging of " + jar + ".");
+                if (hasClassifier()) {
+                    mavenProjectHelper.attachArtifact(getProject(), getType(), getClassifier(), jar);
+                } else {
+                    getProject().getArtifact().setFile(jar);
+                }
+                return;
+            }
+        }
+
         if (!multiReleaseClasses.exists() && !multiReleaseClasses.mkdirs()) {
             throw new MojoExecutionException(
                     "Failed to create the directory for multi-release-jar: " + multiReleaseClasses);
         }
 
+        TreeCopier copier = new TreeCopier(transferThreshold);
+
         try {
-            FileUtils.copyDirectoryStructure(buildOutputDirectory, multiReleaseClasses);
+            copier.copy(buildOutputDirectory.toPath(), multiReleaseClasses.toPath());
         } catch (IOException e) {
             throw new MojoExecutionException("Failed to copy " + buildOutputDirectory + " to " + multiReleaseClasses + ".", e);
         }
@@ -68,10 +113,12 @@ public class MrJarMojo extends JarMojo {
             File sourceModuleInfo = new File(CompileMojo.getOutputDirectoryForModuleDescriptor(buildOutputDirectory, mainModuleInfo), "module-info.class");
             File targetModuleInfo = new File(multiReleaseClasses, "module-info.class");
             try {
-                Files.move(sourceModuleInfo.toPath(), targetModuleInfo.toPath());
+                // copy, not move, so that the compiled descriptor stays in place and doesn't need to be recompiled
+                Files.copy(sourceModuleInfo.toPath(), targetModuleInfo.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.COPY_ATTRIBUTES);
             } catch (IOException e) {
                 throw new MojoExecutionException(
-                        "Failed to move module-info.class from " + sourceModuleInfo + " to " + targetModuleInfo, e);
+                        "Failed to copy module-info.class from " + sourceModuleInfo + " to " + targetModuleInfo, e);
             }
         }
 
@@ -86,19 +133,22 @@ public class MrJarMojo extends JarMojo {
                 File releaseOutput = CompileMojo.getOutputDirectory(buildOutputDirectory, release);
                 File releaseDescriptor = CompileMojo.getOutputDirectoryForModuleDescriptor(buildOutputDirectory, release);
 
+                Path releaseClasses = multiReleaseClasses.toPath().resolve("META-INF/versions/" + release);
+
                 String[] directChildren = releaseOutput.list();
 
                 addMultiReleaseEntry = addMultiReleaseEntry || (directChildren != null && directChildren.length > 0);
 
                 try {
-                    FileUtils.copyDirectoryStructure(releaseOutput, new File(multiReleaseClasses, "META-INF/versions/" + release));
+                    copier.copy(releaseOutput.toPath(), releaseClasses);
                 } catch (IOException e) {
                     throw new MojoExecutionException("Failed to copy " + releaseOutput + " to " + multiReleaseClasses + ".", e);
                 }
 
-                if (releaseDescriptor.exists()) {
+                // the main module descriptor has already been put to the root of the jar
+                if (releaseDescriptor.exists() && !release.equals(mainModuleInfo)) {
                     try {
-                        FileUtils.copyDirectoryStructure(releaseDescriptor, new File(multiReleaseClasses, "META-INF/versions/" + release));
+                        copier.copy(releaseDescriptor.toPath(), releaseClasses);
                     } catch (IOException e) {
                         throw new MojoExecutionException("Failed to copy " + releaseDescriptor + " to " + multiReleaseClasses + ".", e);
                     }
@@ -111,6 +161,48 @@ public class MrJarMojo extends JarMojo {
         }
 
         super.execute();
+
+        try {
+            if (skipUnchanged && jar.isFile()) {
+                summary.setJar(jar, jarInputs);
+                summary.store();
+            } else if (!skipUnchanged) {
+                BuildSummary.delete(buildDirectory);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to record the build summary.", e);
+        }
+    }
+
+    /**
+     * The jar needs to be rebuilt if any of the files that go into it or the configuration of the project changed.
+     */
+    private String computeJarInputsDigest() throws MojoExecutionException {
+        MessageDigest digest = BuildState.newDigest();
+
+        digest.update(String.valueOf(mainModuleInfo).getBytes(UTF_8));
+        File pom = getProject().getFile();
+        if (pom != null) {
+            digest.update((pom.length() + "@" + pom.lastModified()).getBytes(UTF_8));
+        }
+
+        try {
+            BuildSummary.updateStamps(digest, buildOutputDirectory.toPath());
+
+            //noinspection ConstantConditions
+            for (File mrBase : multiReleaseSourcesDirectory.listFiles(File::isDirectory)) {
+                String release = mrBase.getName();
+                digest.update(release.getBytes(UTF_8));
+                BuildSummary.updateStamps(digest,
+                        CompileMojo.getOutputDirectory(buildOutputDirectory, release).toPath());
+                BuildSummary.updateStamps(digest,
+                        CompileMojo.getOutputDirectoryForModuleDescriptor(buildOutputDirectory, release).toPath());
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to check the compiled classes for changes.", e);
+        }
+
+        return BuildState.toHex(digest.digest());
     }
 
     private void addMultiReleaseManifestEntry() throws MojoExecutionException {
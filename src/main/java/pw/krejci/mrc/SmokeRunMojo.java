@@ -0,0 +1,445 @@
+package pw.krejci.mrc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.toolchain.Toolchain;
+import org.apache.maven.toolchain.ToolchainManager;
+import org.apache.maven.toolchain.ToolchainPrivate;
+
+/**
+ * Checks that the multi-release jar of the project loads on each of the releases it contains. For each release
+ * directory in the jar (and for the base classes), a JVM that sees exactly the classes of that release is started,
+ * which loads all the classes of the jar visible on it and optionally runs an entry point. The JVMs run in parallel.
+ *
+ * <p>The JDKs are taken from the {@code jdks} parameter, the {@code jdk} toolchains and the JDK the build runs with. For each release, the oldest
+ * JDK that is at least that release but older than the next release in the jar is used. The releases for which there
+ * is no such JDK are skipped with a warning. The results, including the skipped releases, are written to
+ * {@code target/smoke-run/report.txt}. If none of the releases can be checked, the goal fails (unless
+ * {@code failOnError} is {@code false}).
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+@Mojo(name = "smoke-run", defaultPhase = LifecyclePhase.VERIFY, threadSafe = true,
+        requiresDependencyResolution = ResolutionScope.RUNTIME)
+public class SmokeRunMojo extends AbstractMojo {
+
+    private static final Pattern VERSIONED_ENTRY = Pattern.compile("META-INF/versions/(\\d+)/.+");
+    private static final Pattern JAVA_VERSION = Pattern.compile("^JAVA_VERSION=\"(?:1\\.)?(\\d+)", Pattern.MULTILINE);
+    private static final Pattern TOOLCHAIN_VERSION = Pattern.compile("^(?:1\\.)?(\\d+)");
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${session}", readonly = true, required = true)
+    private MavenSession session;
+
+    @Component
+    private ToolchainManager toolchainManager;
+
+    @Parameter(defaultValue = "${project.build.directory}/smoke-run", required = true)
+    private File smokeRunDirectory;
+
+    /**
+     * The home directories of the JDKs (or JREs) to run the jar on. The version of each is read from its
+     * {@code release} file. The {@code jdk} toolchains from {@code toolchains.xml} are used as well, but these take
+     * precedence over a toolchain of the same version.
+     */
+    @Parameter
+    private List<File> jdks;
+
+    /**
+     * The class with the main method to run after all the classes are loaded. Nothing is run by default.
+     */
+    @Parameter(property = "multi-release-jar.smokeRun.entryPoint")
+    private String entryPoint;
+
+    /**
+     * The arguments passed to the entry point.
+     */
+    @Parameter
+    private List<String> entryPointArguments;
+
+    /**
+     * Whether to also initialize the loaded classes, i.e. run their static initializers.
+     */
+    @Parameter(property = "multi-release-jar.smokeRun.initialize", defaultValue = "false")
+    private boolean initialize;
+
+    /**
+     * The maximum number of JVMs running at the same time. Defaults to the number of available processors.
+     */
+    @Parameter(property = "multi-release-jar.smokeRun.threads", defaultValue = "0")
+    private int threads;
+
+    /**
+     * The number of seconds after which a JVM is killed and its release reported as failed.
+     */
+    @Parameter(property = "multi-release-jar.smokeRun.timeout", defaultValue = "300")
+    private int timeout;
+
+    @Parameter(property = "multi-release-jar.smokeRun.failOnError", defaultValue = "true")
+    private boolean failOnError;
+
+    @Parameter(property = "multi-release-jar.smokeRun.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skipping the smoke run.");
+            return;
+        }
+
+        File jar = project.getArtifact().getFile();
+        if (jar == null || !jar.isFile()) {
+            throw new MojoExecutionException("The project artifact has not been packaged yet. The smoke-run goal needs"
+                    + " to run after the jar goal.");
+        }
+
+        TreeSet<Integer> releases = getVersionedReleases(jar);
+        TreeMap<Integer, File> javaHomes = getJavaHomes();
+
+        getLog().debug("Available JVMs: " + javaHomes);
+
+        // the base classes are used on all the JVMs older than the oldest versioned release
+        Map<String, File> runs = new TreeMap<>();
+        Map<String, String> skipped = new TreeMap<>();
+
+        Integer baseRelease = javaHomes.firstKey();
+        if (!releases.isEmpty() && baseRelease >= releases.first()) {
+            skipped.put("base", "no JVM older than release " + releases.first());
+        } else {
+            runs.put("base", javaHomes.get(baseRelease));
+        }
+
+        // a versioned release is used on all the JVMs until the next versioned release
+        for (Integer release : releases) {
+            Integer next = releases.higher(release);
+            Map.Entry<Integer, File> javaHome = javaHomes.ceilingEntry(release);
+            if (javaHome == null || (next != null && javaHome.getKey() >= next)) {
+                skipped.put(release.toString(), next == null
+                        ? "no JVM of release " + release + " or newer"
+                        : "no JVM of release " + release + " to " + (next - 1));
+            } else {
+                runs.put(release.toString(), javaHome.getValue());
+            }
+        }
+
+        skipped.forEach((release, reason) -> getLog().warn("Release " + release + " will not be checked: " + reason
+                + " is available."));
+
+        if (runs.isEmpty()) {
+            report(emptyMap(), skipped);
+            return;
+        }
+
+        File runner = getRunnerLocation();
+        File classpathFile = new File(smokeRunDirectory, "classpath.txt");
+        try {
+            Files.createDirectories(smokeRunDirectory.toPath());
+            List<String> classpath = new ArrayList<>();
+            for (Artifact a : project.getArtifacts()) {
+                if (a.getArtifactHandler().isAddedToClasspath() && a.getFile() != null) {
+                    classpath.add(a.getFile().getAbsolutePath());
+                }
+            }
+            Files.write(classpathFile.toPath(), classpath, UTF_8);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + classpathFile + ".", e);
+        }
+
+        int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, runs.size()));
+
+        Map<String, Properties> results = new TreeMap<>();
+        try {
+            Map<String, Future<Properties>> futures = new TreeMap<>();
+            runs.forEach((release, javaHome) -> futures.put(release,
+                    executor.submit(() -> run(release, javaHome, jar, runner, classpathFile))));
+
+            for (Map.Entry<String, Future<Properties>> e : futures.entrySet()) {
+                try {
+                    results.put(e.getKey(), e.getValue().get());
+                } catch (ExecutionException ex) {
+                    Properties failed = new Properties();
+                    failed.setProperty("failures", "1");
+                    failed.setProperty("failure.0", String.valueOf(ex.getCause()));
+                    results.put(e.getKey(), failed);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("Interrupted while waiting for the smoke run.", ex);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        report(results, skipped);
+    }
+
+    private Properties run(String release, File javaHome, File jar, File runner, File classpathFile)
+            throws IOException, InterruptedException {
+        File releaseDirectory = new File(smokeRunDirectory, release);
+        Files.createDirectories(releaseDirectory.toPath());
+
+        File reportFile = new File(releaseDirectory, "result.properties");
+        File output = new File(releaseDirectory, "output.log");
+        Files.deleteIfExists(reportFile.toPath());
+
+        List<String> command = new ArrayList<>();
+        command.add(getJavaExecutable(javaHome).getAbsolutePath());
+        command.add("-cp");
+        command.add(runner.getAbsolutePath());
+        command.add(SmokeRunner.class.getName());
+        command.add(reportFile.getAbsolutePath());
+        command.add(jar.getAbsolutePath());
+        command.add(classpathFile.getAbsolutePath());
+        command.add(Boolean.toString(initialize));
+        if (entryPoint != null && !entryPoint.isEmpty()) {
+            command.add(entryPoint);
+            if (entryPointArguments != null) {
+                command.addAll(entryPointArguments);
+            }
+        }
+
+        getLog().debug("Running release " + release + ": " + command);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output).start();
+        boolean finished = process.waitFor(timeout, TimeUnit.SECONDS);
+        if (!finished) {
+            process.destroyForcibly().waitFor();
+        }
+
+        // the runner stores the loading results before running the entry point, so they survive the entry point exiting
+        // the JVM or hanging
+        if (!reportFile.isFile()) {
+            if (!finished) {
+                throw new IOException("The JVM did not finish in " + timeout + " seconds. See " + output + ".");
+            }
+            throw new IOException("The JVM exited with " + process.exitValue() + " without producing any results. See "
+                    + output + ".");
+        }
+
+        Properties ret = new Properties();
+        try (InputStream in = Files.newInputStream(reportFile.toPath())) {
+            ret.load(in);
+        }
+
+        if (!finished) {
+            addFailure(ret, "The JVM did not finish in " + timeout + " seconds. See " + output + ".");
+        } else if ("running".equals(ret.getProperty("entryPoint.status")) && process.exitValue() != 0) {
+            addFailure(ret, ret.getProperty("entryPoint") + ".main exited the JVM with " + process.exitValue()
+                    + ". See " + output + ".");
+        }
+
+        return ret;
+    }
+
+    private static void addFailure(Properties result, String failure) {
+        int failures = Integer.parseInt(result.getProperty("failures", "0"));
+        result.setProperty("failure." + failures, failure);
+        result.setProperty("failures", Integer.toString(failures + 1));
+    }
+
+    private void report(Map<String, Properties> results, Map<String, String> skipped)
+            throws MojoExecutionException, MojoFailureException {
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%-8s %-8s %10s %10s %10s %10s", "release", "jvm", "loaded", "versioned",
+                "load ms", "failures"));
+
+        int totalFailures = 0;
+        List<String> failures = new ArrayList<>();
+
+        for (Map.Entry<String, Properties> e : results.entrySet()) {
+            Properties r = e.getValue();
+            int failureCount = Integer.parseInt(r.getProperty("failures", "0"));
+            totalFailures += failureCount;
+
+            report.add(String.format("%-8s %-8s %10s %10s %10s %10d", e.getKey(), r.getProperty("java.release", "?"),
+                    r.getProperty("classes.loaded", "-"), r.getProperty("classes.versioned", "-"),
+                    r.getProperty("classes.loadTimeMs", "-"), failureCount));
+
+            for (int i = 0; i < failureCount; ++i) {
+                String failure = r.getProperty("failure." + i);
+                if (failure != null) {
+                    failures.add(e.getKey() + ": " + failure);
+                }
+            }
+        }
+
+        skipped.forEach((release, reason) -> report.add(String.format("%-8s %-8s %s", release, "-",
+                "not checked, " + reason + " is available")));
+
+        if (!failures.isEmpty()) {
+            report.add("");
+            report.addAll(failures);
+        }
+
+        File reportFile = new File(smokeRunDirectory, "report.txt");
+        try {
+            Files.createDirectories(smokeRunDirectory.toPath());
+            Files.write(reportFile.toPath(), report, UTF_8);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + reportFile + ".", e);
+        }
+
+        getLog().info("Smoke run results (also written to " + reportFile + "):");
+        report.forEach(totalFailures == 0 && !results.isEmpty() ? getLog()::info : getLog()::warn);
+
+        if (results.isEmpty()) {
+            String message = "None of the releases in the multi-release jar could be checked, because there is no"
+                    + " suitable JVM for any of them. Configure the JDKs to use in the jdks parameter.";
+            if (failOnError) {
+                throw new MojoFailureException(message);
+            }
+            getLog().warn(message);
+            return;
+        }
+
+        if (totalFailures > 0 && failOnError) {
+            throw new MojoFailureException(totalFailures + " failures in the smoke run of the multi-release jar. See "
+                    + reportFile + ".");
+        }
+    }
+
+    private static TreeSet<Integer> getVersionedReleases(File jar) throws MojoExecutionException {
+        TreeSet<Integer> ret = new TreeSet<>();
+        try (JarFile file = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                Matcher m = VERSIONED_ENTRY.matcher(entries.nextElement().getName());
+                if (m.matches()) {
+                    ret.add(Integer.parseInt(m.group(1)));
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read " + jar + ".", e);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the available java homes by their release, the first configured one wins
+     */
+    private TreeMap<Integer, File> getJavaHomes() throws MojoExecutionException {
+        TreeMap<Integer, File> ret = new TreeMap<>();
+
+        if (jdks != null) {
+            for (File jdk : jdks) {
+                Integer release = getRelease(jdk);
+                if (release == null) {
+                    throw new MojoExecutionException("Could not determine the version of the JDK in " + jdk + ".");
+                }
+                ret.putIfAbsent(release, jdk);
+            }
+        }
+
+        for (Toolchain toolchain : toolchainManager.getToolchains(session, "jdk", emptyMap())) {
+            String java = toolchain.findTool("java");
+            File home = java == null ? null : new File(java).getAbsoluteFile().getParentFile().getParentFile();
+            if (home == null) {
+                getLog().debug("Ignoring the toolchain " + toolchain + " without a java executable.");
+                continue;
+            }
+
+            Integer release = getRelease(home);
+            if (release == null && toolchain instanceof ToolchainPrivate) {
+                String version = ((ToolchainPrivate) toolchain).getModel().getProvides().getProperty("version");
+                Matcher m = TOOLCHAIN_VERSION.matcher(version == null ? "" : version);
+                if (m.find()) {
+                    release = Integer.parseInt(m.group(1));
+                }
+            }
+
+            if (release == null) {
+                getLog().warn("Ignoring the toolchain " + toolchain + ", because its version could not be determined.");
+                continue;
+            }
+            ret.putIfAbsent(release, home);
+        }
+
+        String version = System.getProperty("java.specification.version");
+        ret.putIfAbsent(Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version),
+                new File(System.getProperty("java.home")));
+
+        return ret;
+    }
+
+    private static Integer getRelease(File javaHome) {
+        // on Java 8, the release file is in the JDK, not in its JRE
+        for (File home : new File[]{javaHome, javaHome.getParentFile()}) {
+            if (home == null) {
+                continue;
+            }
+
+            File release = new File(home, "release");
+            if (release.isFile()) {
+                try {
+                    Matcher m = JAVA_VERSION.matcher(new String(Files.readAllBytes(release.toPath()), UTF_8));
+                    if (m.find()) {
+                        return Integer.parseInt(m.group(1));
+                    }
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static File getJavaExecutable(File javaHome) {
+        String name = System.getProperty("os.name").toLowerCase().startsWith("windows") ? "java.exe" : "java";
+        return new File(new File(javaHome, "bin"), name);
+    }
+
+    /**
+     * @return the jar (or the directory) the runner class is loaded from, i.e. the plugin itself
+     */
+    private static File getRunnerLocation() throws MojoExecutionException {
+        CodeSource codeSource = SmokeRunner.class.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            throw new MojoExecutionException("Could not determine the location of the plugin.");
+        }
+
+        try {
+            return new File(codeSource.getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new MojoExecutionException("Could not determine the location of the plugin.", e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package pw.krejci.mrc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The main class of the JVMs started by the {@link SmokeRunMojo}. It loads all the classes from a jar that are visible
+ * on the running JVM and optionally runs an entry point, recording the results in a properties file.
+ *
+ * <p>This runs on all the JDKs the jar is tested on, so it must only use the Java 8 APIs and must not depend on
+ * anything else from the plugin. The versioned classes are loaded the same way any application would load them -
+ * through a {@link URLClassLoader} which does the versioned lookup in the multi-release jars on Java 9 and later.
+ *
+ * <p>Usage: {@code SmokeRunner <report file> <jar> <classpath file> <initialize> [<entry point> [<arguments>...]]}
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+public final class SmokeRunner {
+    private static final Pattern VERSIONED_ENTRY = Pattern.compile("META-INF/versions/(\\d+)/(.+)");
+    private static final int MAX_REPORTED_FAILURES = 100;
+
+    private SmokeRunner() {
+        throw new AssertionError();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File reportFile = new File(args[0]);
+        File jar = new File(args[1]);
+        List<String> classpath = Files.readAllLines(new File(args[2]).toPath(), UTF_8);
+        boolean initialize = Boolean.parseBoolean(args[3]);
+        String entryPoint = args.length > 4 ? args[4] : null;
+        String[] entryPointArgs = args.length > 5 ? Arrays.copyOfRange(args, 5, args.length) : new String[0];
+
+        Properties report = new Properties();
+        int javaVersion = getJavaVersion();
+        report.setProperty("java.version", System.getProperty("java.version"));
+        report.setProperty("java.release", Integer.toString(javaVersion));
+
+        List<URL> urls = new ArrayList<>();
+        urls.add(jar.toURI().toURL());
+        for (String element : classpath) {
+            if (!element.isEmpty()) {
+                urls.add(new File(element).toURI().toURL());
+            }
+        }
+
+        // the parent of the system class loader sees just the JDK, not the classpath of this runner
+        ClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]),
+                ClassLoader.getSystemClassLoader().getParent());
+
+        List<String> failures = new ArrayList<>();
+        int loaded = 0;
+        int versioned = 0;
+
+        long start = System.nanoTime();
+        for (String className : getClassNames(jar, javaVersion)) {
+            try {
+                Class<?> cls = Class.forName(className, initialize, loader);
+                // resolves the types used in the signatures of the members
+                cls.getDeclaredFields();
+                cls.getDeclaredMethods();
+                cls.getDeclaredConstructors();
+                ++loaded;
+
+                URL location = loader.getResource(className.replace('.', '/') + ".class");
+                if (location != null && location.toString().contains("!/META-INF/versions/")) {
+                    ++versioned;
+                }
+            } catch (Throwable t) {
+                failures.add(className + ": " + t);
+            }
+        }
+        long loadTime = (System.nanoTime() - start) / 1_000_000;
+
+        report.setProperty("classes.loaded", Integer.toString(loaded));
+        report.setProperty("classes.versioned", Integer.toString(versioned));
+        report.setProperty("classes.loadTimeMs", Long.toString(loadTime));
+
+        if (entryPoint != null && !entryPoint.isEmpty()) {
+            report.setProperty("entryPoint", entryPoint);
+            report.setProperty("entryPoint.status", "running");
+        }
+
+        // the entry point might exit the JVM or never finish, so the loading results must be stored before it runs
+        store(report, failures, reportFile, jar);
+
+        if (entryPoint != null && !entryPoint.isEmpty()) {
+            try {
+                Method main = Class.forName(entryPoint, true, loader).getMethod("main", String[].class);
+                if (!Modifier.isStatic(main.getModifiers())) {
+                    throw new NoSuchMethodException("The main method of " + entryPoint + " is not static.");
+                }
+
+                ClassLoader original = Thread.currentThread().getContextClassLoader();
+                Thread.currentThread().setContextClassLoader(loader);
+                long entryStart = System.nanoTime();
+                try {
+                    main.invoke(null, (Object) entryPointArgs);
+                } finally {
+                    Thread.currentThread().setContextClassLoader(original);
+                }
+                report.setProperty("entryPoint.timeMs", Long.toString((System.nanoTime() - entryStart) / 1_000_000));
+                report.setProperty("entryPoint.status", "finished");
+            } catch (Throwable t) {
+                Throwable cause = t instanceof InvocationTargetException ? t.getCause() : t;
+                StringWriter trace = new StringWriter();
+                cause.printStackTrace(new PrintWriter(trace));
+                failures.add(entryPoint + ".main: " + trace.toString().trim());
+                report.setProperty("entryPoint.status", "failed");
+            }
+
+            store(report, failures, reportFile, jar);
+        }
+
+        // the entry point might have left some non-daemon threads behind
+        System.exit(0);
+    }
+
+    /**
+     * Writes the report through a temporary file so that the JVM being killed in the middle of the write doesn't leave
+     * a partial report behind.
+     */
+    private static void store(Properties report, List<String> failures, File reportFile, File jar) throws IOException {
+        report.setProperty("failures", Integer.toString(failures.size()));
+        for (int i = 0; i < Math.min(failures.size(), MAX_REPORTED_FAILURES); ++i) {
+            report.setProperty("failure." + i, failures.get(i));
+        }
+
+        Path tmp = reportFile.toPath().resolveSibling(reportFile.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            report.store(out, "Smoke run of " + jar.getName());
+        }
+        Files.move(tmp, reportFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the names of the classes in the jar that are visible on a JVM of the provided version
+     */
+    private static TreeSet<String> getClassNames(File jar, int javaVersion) throws IOException {
+        TreeSet<String> ret = new TreeSet<>();
+        try (JarFile file = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+
+                Matcher m = VERSIONED_ENTRY.matcher(name);
+                if (m.matches()) {
+                    if (javaVersion < 9 || Integer.parseInt(m.group(1)) > javaVersion) {
+                        continue;
+                    }
+                    name = m.group(2);
+                }
+
+                if (name.endsWith(".class") && !name.startsWith("META-INF/") && !name.contains("-")) {
+                    // the "-" filters out module-info and package-info
+                    ret.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static int getJavaVersion() {
+        String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        return Integer.parseInt(version);
+    }
+}
@@ -0,0 +1,176 @@
+package pw.krejci.mrc;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Copies directory trees with as few writes and as little heap churn as possible. Each tree is listed using a single
+ * walk that also returns the attributes of the files, the files whose identical copy is already in the target are not
+ * written at all, the small files are read using pooled direct buffers and the large files are transferred by
+ * the operating system.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+final class TreeCopier {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    // shared by all the copiers so that the parallel builds don't allocate new direct buffers for each module
+    private static final Queue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+
+    private final long transferThreshold;
+
+    /**
+     * @param transferThreshold the files of this size or larger are copied using
+     *                          {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     *                          instead of being read into a buffer
+     */
+    TreeCopier(long transferThreshold) {
+        this.transferThreshold = transferThreshold;
+    }
+
+    /**
+     * Copies the contents of the source directory into the target directory. Does nothing if the source directory
+     * doesn't exist.
+     */
+    void copy(Path source, Path target) throws IOException {
+        if (!Files.isDirectory(source)) {
+            return;
+        }
+
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    copyFile(file, attrs, target.resolve(source.relativize(file).toString()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void copyFile(Path source, BasicFileAttributes sourceAttrs, Path target) throws IOException {
+        try {
+            BasicFileAttributes targetAttrs = Files.readAttributes(target, BasicFileAttributes.class);
+            // the timestamps are not reliable enough (their granularity, tools restoring them), so compare the contents
+            if (targetAttrs.size() == sourceAttrs.size() && contentEquals(source, target)) {
+                if (!targetAttrs.lastModifiedTime().equals(sourceAttrs.lastModifiedTime())) {
+                    Files.setLastModifiedTime(target, sourceAttrs.lastModifiedTime());
+                }
+                return;
+            }
+        } catch (NoSuchFileException e) {
+            // fine, we need to copy it
+        }
+
+        try (FileChannel in = FileChannel.open(source, READ);
+             FileChannel out = FileChannel.open(target, WRITE, CREATE, TRUNCATE_EXISTING)) {
+
+            long size = sourceAttrs.size();
+            if (size >= transferThreshold) {
+                long position = 0;
+                while (position < size) {
+                    long transferred = in.transferTo(position, size - position, out);
+                    if (transferred <= 0) {
+                        // the file got truncated in the meantime
+                        break;
+                    }
+                    position += transferred;
+                }
+            } else {
+                ByteBuffer buffer = acquireBuffer();
+                try {
+                    while (in.read(buffer) != -1) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                } finally {
+                    releaseBuffer(buffer);
+                }
+            }
+        }
+
+        // keep the timestamp of the original, which ends up in the jar entry
+        Files.setLastModifiedTime(target, sourceAttrs.lastModifiedTime());
+    }
+
+    private static boolean contentEquals(Path a, Path b) throws IOException {
+        ByteBuffer bufferA = acquireBuffer();
+        ByteBuffer bufferB = acquireBuffer();
+        try (FileChannel inA = FileChannel.open(a, READ); FileChannel inB = FileChannel.open(b, READ)) {
+            while (true) {
+                int readA = readFully(inA, bufferA);
+                int readB = readFully(inB, bufferB);
+                if (readA != readB) {
+                    return false;
+                }
+                if (readA <= 0) {
+                    return true;
+                }
+
+                bufferA.flip();
+                bufferB.flip();
+                if (!bufferA.equals(bufferB)) {
+                    return false;
+                }
+                bufferA.clear();
+                bufferB.clear();
+            }
+        } finally {
+            releaseBuffer(bufferA);
+            releaseBuffer(bufferB);
+        }
+    }
+
+    /**
+     * Fills the buffer as much as possible.
+     *
+     * @return the number of bytes read or -1 if at the end of the channel
+     */
+    private static int readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int cnt = in.read(buffer);
+            if (cnt == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += cnt;
+        }
+        return total;
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = BUFFER_POOL.poll();
+        return buffer == null ? ByteBuffer.allocateDirect(BUFFER_SIZE) : buffer;
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package pw.krejci.mrc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+/**
+ * Merges the multi-release jar of the project with its runtime dependencies into a single multi-release jar. Unlike
+ * the generic shading tools, this keeps the versioned entries of the multi-release dependencies under the right release
+ * directories and resolves the conflicting entries for each release separately.
+ *
+ * <p>The contents of the jars are streamed directly from the source jars into the resulting jar, nothing is extracted
+ * to the disk. The source jars are indexed in parallel.
+ *
+ * @author Lukas Krejci
+ * @since 0.1.6
+ */
+@Mojo(name = "uber-jar", defaultPhase = LifecyclePhase.PACKAGE, threadSafe = true,
+        requiresDependencyResolution = ResolutionScope.RUNTIME)
+public class UberJarMojo extends AbstractMojo {
+
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final Pattern VERSIONED_ENTRY = Pattern.compile("META-INF/versions/(\\d+)/(.+)");
+    private static final Pattern SIGNATURE_FILE = Pattern.compile("META-INF/[^/]+\\.(SF|DSA|RSA|EC)");
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Component
+    private MavenProjectHelper projectHelper;
+
+    @Parameter(defaultValue = "${project.build.directory}", required = true)
+    private File outputDirectory;
+
+    @Parameter(defaultValue = "${project.build.finalName}", readonly = true, required = true)
+    private String finalName;
+
+    /**
+     * The classifier of the merged jar.
+     */
+    @Parameter(defaultValue = "uber")
+    private String classifier;
+
+    /**
+     * If true, the merged jar replaces the jar of the project (and the main artifact) instead of being attached with
+     * the classifier. This is also the case if the classifier is empty.
+     */
+    @Parameter(property = "multi-release-jar.uberJar.replaceProjectArtifact", defaultValue = "false")
+    private boolean replaceProjectArtifact;
+
+    /**
+     * The number of threads used to index the dependencies. Defaults to the number of available processors.
+     */
+    @Parameter(property = "multi-release-jar.uberJar.threads", defaultValue = "0")
+    private int threads;
+
+    @Override public void execute() throws MojoExecutionException {
+        File projectJar = project.getArtifact().getFile();
+        if (projectJar == null || !projectJar.isFile()) {
+            throw new MojoExecutionException("The project artifact has not been packaged yet. The uber-jar goal needs"
+                    + " to run after the jar goal.");
+        }
+
+        List<File> sources = new ArrayList<>();
+        sources.add(projectJar);
+        for (Artifact a : project.getArtifacts()) {
+            if (a.getArtifactHandler().isAddedToClasspath() && a.getFile() != null && a.getFile().isFile()) {
+                sources.add(a.getFile());
+            }
+        }
+
+        // the project jar might have been produced with a different name or location than the default one
+        File uberJar = isReplacingProjectArtifact()
+                ? projectJar
+                : new File(outputDirectory, finalName + "-" + classifier + ".jar");
+        File uberJarDirectory = uberJar.getAbsoluteFile().getParentFile();
+
+        // without a classifier, the uber jar replaces the project jar which we're reading from, so it is first written
+        // to a temporary file next to it and moved into place only after all the source jars are closed.
+        Path tempJar;
+        try {
+            Files.createDirectories(uberJarDirectory.toPath());
+            tempJar = Files.createTempFile(uberJarDirectory.toPath(), uberJar.getName(), ".tmp");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to create a temporary file in " + uberJarDirectory + ".", e);
+        }
+
+        try {
+            List<IndexedJar> jars = index(sources);
+            try {
+                merge(jars, tempJar.toFile());
+            } finally {
+                for (IndexedJar jar : jars) {
+                    try {
+                        jar.file.close();
+                    } catch (IOException e) {
+                        getLog().debug("Failed to close " + jar.file.getName(), e);
+                    }
+                }
+            }
+
+            moveIntoPlace(tempJar, uberJar.toPath());
+        } finally {
+            try {
+                Files.deleteIfExists(tempJar);
+            } catch (IOException e) {
+                getLog().debug("Failed to delete " + tempJar, e);
+            }
+        }
+
+        if (isReplacingProjectArtifact()) {
+            project.getArtifact().setFile(uberJar);
+        } else {
+            projectHelper.attachArtifact(project, "jar", classifier, uberJar);
+        }
+    }
+
+    private static void moveIntoPlace(Path source, Path target) throws MojoExecutionException {
+        try {
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to move " + source + " to " + target + ".", e);
+        }
+    }
+
+    private boolean isReplacingProjectArtifact() {
+        return replaceProjectArtifact || classifier == null || classifier.trim().isEmpty();
+    }
+
+    private List<IndexedJar> index(List<File> sources) throws MojoExecutionException {
+        int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, sources.size()));
+
+        List<IndexedJar> jars = new ArrayList<>(sources.size());
+        try {
+            List<Future<IndexedJar>> futures = new ArrayList<>(sources.size());
+            for (int i = 0; i < sources.size(); ++i) {
+                File source = sources.get(i);
+                boolean projectJar = i == 0;
+                futures.add(executor.submit(() -> IndexedJar.open(source, projectJar)));
+            }
+
+            // collect all the futures, even after a failure, so that we don't leak the opened jar files
+            MojoExecutionException failure = null;
+            for (int i = 0; i < futures.size(); ++i) {
+                try {
+                    jars.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new MojoExecutionException("Failed to read " + sources.get(i) + ".", e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (failure == null) {
+                        failure = new MojoExecutionException("Interrupted while indexing the dependencies.", e);
+                    }
+                }
+            }
+
+            if (failure != null) {
+                for (IndexedJar jar : jars) {
+                    try {
+                        jar.file.close();
+                    } catch (IOException ignored) {
+                        // we're already failing
+                    }
+                }
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return jars;
+    }
+
+    private void merge(List<IndexedJar> jars, File uberJar) throws MojoExecutionException {
+        // release -> entry path -> the jar the entry is taken from. The release of the main entries is 0.
+        Map<Integer, Map<String, IndexedJar>> entriesPerRelease = new TreeMap<>();
+        Map<Integer, Integer> conflictsPerRelease = new TreeMap<>();
+        Map<String, Set<String>> services = new LinkedHashMap<>();
+
+        // a versioned entry is only an override of the base entry from the same jar. If the base entry is taken from
+        // a different jar, the versioned entry must not be used, otherwise different releases would see classes from
+        // different libraries.
+        Map<String, IndexedJar> baseEntries = new LinkedHashMap<>();
+        for (IndexedJar jar : jars) {
+            for (String name : jar.entries) {
+                if (!name.endsWith("/") && !VERSIONED_ENTRY.matcher(name).matches() && !isIgnoredMetadata(name)
+                        && (jar.projectJar || !isModuleDescriptor(name))) {
+                    baseEntries.putIfAbsent(name, jar);
+                }
+            }
+        }
+
+        int droppedOverlays = 0;
+
+        for (IndexedJar jar : jars) {
+            for (String name : jar.entries) {
+                if (isIgnoredMetadata(name)) {
+                    continue;
+                }
+
+                int release = 0;
+                String path = name;
+
+                Matcher m = VERSIONED_ENTRY.matcher(name);
+                if (m.matches()) {
+                    if (!jar.multiRelease) {
+                        // the versioned entries are not used by the JVM if the jar is not a multi-release one. We must
+                        // not make them live in the merged jar.
+                        getLog().debug("Ignoring " + name + " from " + jar.file.getName()
+                                + " which is not a multi-release jar.");
+                        continue;
+                    }
+                    release = Integer.parseInt(m.group(1));
+                    path = m.group(2);
+
+                    IndexedJar baseJar = baseEntries.get(path);
+                    if (baseJar != null && baseJar != jar) {
+                        ++droppedOverlays;
+                        getLog().debug("Ignoring " + name + " from " + jar.file.getName() + " because the base entry"
+                                + " is taken from " + baseJar.file.getName() + ".");
+                        continue;
+                    }
+                }
+
+                if (!jar.projectJar && isModuleDescriptor(path)) {
+                    getLog().debug("Ignoring the module descriptor " + name + " from " + jar.file.getName() + ".");
+                    continue;
+                }
+
+                if (release == 0 && path.startsWith(SERVICES_PREFIX) && !path.endsWith("/")) {
+                    try {
+                        services.computeIfAbsent(path, k -> new LinkedHashSet<>()).addAll(jar.readServices(path));
+                    } catch (IOException e) {
+                        throw new MojoExecutionException("Failed to read " + path + " from " + jar.file.getName(), e);
+                    }
+                    continue;
+                }
+
+                IndexedJar previous = entriesPerRelease.computeIfAbsent(release, k -> new LinkedHashMap<>())
+                        .putIfAbsent(path, jar);
+                if (previous != null && !name.endsWith("/")) {
+                    conflictsPerRelease.merge(release, 1, Integer::sum);
+                    getLog().debug("Duplicate entry " + name + " in " + jar.file.getName() + ". Using the one from "
+                            + previous.file.getName() + ".");
+                }
+            }
+        }
+
+        conflictsPerRelease.forEach((release, count) -> getLog().warn(count + " duplicate entries found in "
+                + (release == 0 ? "the main classes" : "release " + release)
+                + ". The first occurrence of each entry was used."));
+
+        if (droppedOverlays > 0) {
+            getLog().warn(droppedOverlays + " versioned entries were dropped because the corresponding base entries"
+                    + " were taken from a different jar.");
+        }
+
+        boolean multiRelease = entriesPerRelease.keySet().stream().anyMatch(r -> r > 0);
+
+        Manifest manifest = new Manifest(jars.get(0).manifest);
+        manifest.getMainAttributes().putIfAbsent(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (multiRelease) {
+            manifest.getMainAttributes().putValue("Multi-Release", "true");
+        }
+
+        byte[] buffer = new byte[64 * 1024];
+
+        try (OutputStream out = Files.newOutputStream(uberJar.toPath());
+             JarOutputStream jar = new JarOutputStream(out, manifest)) {
+
+            for (Map.Entry<Integer, Map<String, IndexedJar>> releaseEntries : entriesPerRelease.entrySet()) {
+                String prefix = releaseEntries.getKey() == 0 ? "" : VERSIONS_PREFIX + releaseEntries.getKey() + "/";
+                for (Map.Entry<String, IndexedJar> e : releaseEntries.getValue().entrySet()) {
+                    String name = prefix + e.getKey();
+                    JarEntry source = e.getValue().file.getJarEntry(name);
+
+                    JarEntry target = new JarEntry(name);
+                    target.setTime(source.getTime());
+                    jar.putNextEntry(target);
+
+                    if (!source.isDirectory()) {
+                        try (InputStream in = e.getValue().file.getInputStream(source)) {
+                            int cnt;
+                            while ((cnt = in.read(buffer)) != -1) {
+                                jar.write(buffer, 0, cnt);
+                            }
+                        }
+                    }
+
+                    jar.closeEntry();
+                }
+            }
+
+            for (Map.Entry<String, Set<String>> e : services.entrySet()) {
+                jar.putNextEntry(new JarEntry(e.getKey()));
+                for (String line : e.getValue()) {
+                    jar.write(line.getBytes(UTF_8));
+                    jar.write('\n');
+                }
+                jar.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + uberJar + ".", e);
+        }
+    }
+
+    private static boolean isModuleDescriptor(String path) {
+        return path.equals("module-info.class") || path.endsWith("/module-info.class");
+    }
+
+    private static boolean isIgnoredMetadata(String name) {
+        return name.equals("META-INF/") || name.equals(JarFile.MANIFEST_NAME) || name.equals("META-INF/INDEX.LIST")
+                || SIGNATURE_FILE.matcher(name).matches();
+    }
+
+    private static final class IndexedJar {
+        final JarFile file;
+        final boolean projectJar;
+        final boolean multiRelease;
+        final Manifest manifest;
+        final List<String> entries;
+
+        private IndexedJar(JarFile file, boolean projectJar, Manifest manifest, List<String> entries) {
+            this.file = file;
+            this.projectJar = projectJar;
+            this.manifest = manifest == null ? new Manifest() : manifest;
+            this.multiRelease = "true".equalsIgnoreCase(this.manifest.getMainAttributes().getValue("Multi-Release"));
+            this.entries = entries;
+        }
+
+        static IndexedJar open(File source, boolean projectJar) throws IOException {
+            JarFile file = new JarFile(source);
+            try {
+                List<String> entries = new ArrayList<>(file.size());
+                Enumeration<JarEntry> en = file.entries();
+                while (en.hasMoreElements()) {
+                    entries.add(en.nextElement().getName());
+                }
+
+                return new IndexedJar(file, projectJar, file.getManifest(), entries);
+            } catch (IOException | RuntimeException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        List<String> readServices(String name) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (InputStream in = file.getInputStream(file.getJarEntry(name))) {
+                byte[] buffer = new byte[4096];
+                int cnt;
+                while ((cnt = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, cnt);
+                }
+            }
+
+            List<String> ret = new ArrayList<>();
+            for (String line : new String(bytes.toByteArray(), UTF_8).split("\\r?\\n")) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    ret.add(line);
+                }
+            }
+            return ret;
+        }
+    }
+}